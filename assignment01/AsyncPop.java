@@ -0,0 +1,46 @@
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.CompletableFuture;
+
+// Client-side helper for the asynchronous delayPop: exports a callback, and completes a future
+// when the server calls it back, so the client waits without tying up a server thread.
+public class AsyncPop implements PopCallback {
+    private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+    private AsyncPop() {
+    }
+
+    // Ask the server to pop after millis milliseconds, the future completes with the popped value
+    public static CompletableFuture<Integer> delayPop(Calculator calc, int millis, String clientID)
+            throws RemoteException {
+        AsyncPop callback = new AsyncPop();
+        UnicastRemoteObject.exportObject(callback, 0);
+        try {
+            calc.delayPop(millis, clientID, callback);
+        } catch (RemoteException e) {
+            callback.unexport();
+            throw e;
+        }
+        return callback.result;
+    }
+
+    @Override
+    public void popped(int value) {
+        unexport();
+        result.complete(value);
+    }
+
+    @Override
+    public void failed(String message) {
+        unexport();
+        result.completeExceptionally(new IllegalStateException(message));
+    }
+
+    private void unexport() {
+        try {
+            UnicastRemoteObject.unexportObject(this, false);
+        } catch (RemoteException e) {
+            // Already unexported
+        }
+    }
+}
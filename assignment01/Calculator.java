@@ -1,6 +1,7 @@
 
 
 import java.rmi.*;
+import java.util.List;
 
 public interface Calculator extends Remote {
 
@@ -23,4 +24,26 @@ public interface Calculator extends Remote {
 
     // Wait millis milliseconds before carrying out the pop operation as above.
     public int delayPop(int millis, String clientID) throws RemoteException;
+
+    // Return immediately, and pop after millis milliseconds on the server, passing the popped value
+    // to the client's exported callback. No server thread is held while waiting.
+    public void delayPop(int millis, String clientID, PopCallback callback) throws RemoteException;
+
+    // Take every value in vals and push them on to the stack in order, in a single call.
+    public void pushValues(int[] vals, String clientID) throws RemoteException;
+
+    // Carry out each operation of the program in order, in a single call, with the same effect as
+    // making the matching calls one by one. Returns the result of every pop and isEmpty in program
+    // order, with isEmpty returned as 1 for true and 0 for false. The first operation that fails throws
+    // its exception: the operations before it stay applied and the rest of the program is not carried out.
+    public int[] execute(List<Op> program, String clientID) throws RemoteException;
+
+    // Return the client IDs that hold a stack on this server, for moving stacks between servers.
+    public List<String> getClientIDs() throws RemoteException;
+
+    // Remove the client's stack and return its values, from the bottom of the stack up.
+    public int[] exportStack(String clientID) throws RemoteException;
+
+    // Place values, bottom first, beneath anything already on the client's stack.
+    public void importStack(String clientID, int[] values) throws RemoteException;
 }
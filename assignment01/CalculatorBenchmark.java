@@ -0,0 +1,359 @@
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Server-side micro-benchmarks for CalculatorImplementation, called directly without RMI in the loop.
+// Usage: java CalculatorBenchmark pushpop [clients] [threads] [opsPerThread]
+//        java CalculatorBenchmark methods [iterations]
+//        java CalculatorBenchmark memory [values]
+//        java CalculatorBenchmark aggregate [maxValues]
+//        java CalculatorBenchmark parallel [maxValues]
+//        java CalculatorBenchmark sessions [clients]
+//        java CalculatorBenchmark sharded [nodes] [threads] [opsPerThread], against CalculatorServers on
+//        ports 1101 upwards
+//        java CalculatorBenchmark replicated [seconds] [threads], starting three replicas on ports 1201-1203
+public class CalculatorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "pushpop";
+        CalculatorImplementation calc = new CalculatorImplementation();
+        try {
+            switch (mode) {
+                case "pushpop" -> benchmarkPushPop(calc,
+                        args.length > 1 ? Integer.parseInt(args[1]) : 10_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors(),
+                        args.length > 3 ? Integer.parseInt(args[3]) : 1_000_000);
+                case "methods" -> benchmarkMethods(calc,
+                        args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+                case "memory" -> benchmarkMemory(calc, args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+                case "aggregate" -> benchmarkAggregate(calc,
+                        args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+                case "sessions" -> benchmarkSessions(calc,
+                        args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000);
+                case "sharded" -> benchmarkSharded(
+                        args.length > 1 ? Integer.parseInt(args[1]) : 4,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 16,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 20_000);
+                case "replicated" -> benchmarkReplicated(
+                        args.length > 1 ? Integer.parseInt(args[1]) : 10,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 16);
+                case "parallel" -> benchmarkParallel(calc,
+                        args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+                default -> System.err.println("Unknown benchmark: " + mode);
+            }
+        } finally {
+            UnicastRemoteObject.unexportObject(calc, true);
+        }
+    }
+
+    // Interface for one call of a method being timed
+    private interface MethodCall {
+        void call(int i) throws RemoteException;
+    }
+
+    // Each Calculator method on its own, in the manner of a JMH average-time benchmark: warm-up rounds
+    // first so the JIT has compiled it, then a timed round for the mean and one timing each call
+    private static void benchmarkMethods(CalculatorImplementation calc, int iterations) throws RemoteException {
+        String[] operators = { "min", "max", "gcd", "lcm" };
+        int[] batch = new int[16];
+        Map<String, MethodCall> methods = new LinkedHashMap<>();
+        methods.put("pushValue+pop", i -> {
+            calc.pushValue(i, "Methods");
+            calc.pop("Methods");
+        });
+        methods.put("isEmpty", i -> calc.isEmpty("Methods"));
+        methods.put("pushOperation", i -> {
+            calc.pushValue(i | 1, "Methods");
+            calc.pushValue(3, "Methods");
+            calc.pushOperation(operators[i & 3], "Methods");
+            calc.pop("Methods");
+        });
+        methods.put("pushValues(16)+execute", i -> {
+            calc.pushValues(batch, "Methods");
+            calc.execute(List.of(Op.pushOperation("max"), Op.pop()), "Methods");
+        });
+
+        System.out.printf("%-24s %12s   %s%n", "method", "mean ns/op", "per-call latency");
+        for (Map.Entry<String, MethodCall> method : methods.entrySet()) {
+            MethodCall call = method.getValue();
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < iterations; i++) {
+                    call.call(i);
+                }
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                call.call(i);
+            }
+            double mean = (double) (System.nanoTime() - start) / iterations;
+
+            LatencyHistogram latency = new LatencyHistogram();
+            for (int i = 0; i < iterations; i++) {
+                long before = System.nanoTime();
+                call.call(i);
+                latency.record(System.nanoTime() - before);
+            }
+            System.out.printf("%-24s %12.1f   p50 %d ns, p99 %d ns, p999 %d ns%n", method.getKey(), mean,
+                    latency.getPercentile(50), latency.getPercentile(99), latency.getPercentile(99.9));
+        }
+    }
+
+    // Push/pop pairs spread over many client IDs from several threads
+    private static void benchmarkPushPop(CalculatorImplementation calc, int clients, int threads, int opsPerThread)
+            throws Exception {
+        String[] clientIDs = new String[clients];
+        for (int i = 0; i < clients; i++) {
+            clientIDs[i] = "Client" + i;
+        }
+
+        // Warm up before measuring
+        runPushPop(calc, clientIDs, threads, opsPerThread / 10);
+
+        long start = System.nanoTime();
+        runPushPop(calc, clientIDs, threads, opsPerThread);
+        long elapsed = System.nanoTime() - start;
+
+        long ops = 2L * threads * opsPerThread;
+        System.out.printf("pushValue+pop: %d clients, %d threads: %,.0f ops/s%n", clients, threads,
+                ops / (elapsed / 1e9));
+    }
+
+    private static void runPushPop(CalculatorImplementation calc, String[] clientIDs, int threads, int ops)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < ops; i++) {
+                    String clientID = clientIDs[(offset + i * threads) % clientIDs.length];
+                    calc.pushValue(i, clientID);
+                    calc.pop(clientID);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+    }
+
+    // pushOperation using the running aggregates against a full scan, for stacks of 10 to maxValues values
+    private static void benchmarkAggregate(CalculatorImplementation calc, int maxValues) throws RemoteException {
+        String[] operators = { "min", "max", "gcd", "lcm" };
+        System.out.printf("%-10s %-4s %14s %14s%n", "values", "op", "running ns", "scan ns");
+        for (int values = 10; values <= maxValues; values *= 10) {
+            int repetitions = Math.max(1, 1_000_000 / values);
+            for (String operator : operators) {
+                long running = timeOperation(calc, operator, values, repetitions, false);
+                long scan = timeOperation(calc, operator, values, repetitions, true);
+                System.out.printf("%-10d %-4s %14d %14d%n", values, operator, running / repetitions,
+                        scan / repetitions);
+            }
+        }
+    }
+
+    // Sequential against parallel scans, for stacks of 1,000 to maxValues values, to find the crossover
+    // point for calculator.parallelThreshold on this machine
+    private static void benchmarkParallel(CalculatorImplementation calc, int maxValues) throws RemoteException {
+        String[] operators = { "min", "max", "gcd", "lcm" };
+        System.out.printf("%-10s %-4s %14s %14s%n", "values", "op", "sequential ns", "parallel ns");
+        for (int values = 1_000; values <= maxValues; values *= 10) {
+            int repetitions = Math.max(3, 10_000_000 / values);
+            for (String operator : operators) {
+                calc.setParallelThreshold(Integer.MAX_VALUE);
+                long sequential = timeOperation(calc, operator, values, repetitions, true);
+                calc.setParallelThreshold(0);
+                long parallel = timeOperation(calc, operator, values, repetitions, true);
+                System.out.printf("%-10d %-4s %14d %14d%n", values, operator, sequential / repetitions,
+                        parallel / repetitions);
+            }
+        }
+        calc.setParallelThreshold(Integer.getInteger("calculator.parallelThreshold", 1 << 20));
+    }
+
+    // Total time spent in pushOperation, excluding the pushes that set up each stack
+    private static long timeOperation(CalculatorImplementation calc, String operator, int values,
+            int repetitions, boolean scan) throws RemoteException {
+        String clientID = "Aggregate-" + operator + "-" + values + (scan ? "-scan" : "-running");
+        long total = 0;
+        for (int r = 0; r < repetitions; r++) {
+            for (int i = 0; i < values; i++) {
+                calc.pushValue(1 + i % 12, clientID); // lcm stays within int range
+            }
+            if (scan) {
+                calc.pushValue(calc.pop(clientID), clientID); // A pop invalidates the running aggregates
+            }
+            long start = System.nanoTime();
+            calc.pushOperation(operator, clientID);
+            total += System.nanoTime() - start;
+            calc.pop(clientID);
+        }
+        return total;
+    }
+
+    // Churn through many short-lived client IDs, showing live sessions and heap stay bounded by
+    // calculator.maxSessions rather than growing with every client seen
+    private static void benchmarkSessions(CalculatorImplementation calc, int clients) throws RemoteException {
+        int rounds = 10;
+        int perRound = Math.max(1, clients / rounds);
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < perRound; i++) {
+                String clientID = "Session-" + round + "-" + i;
+                calc.pushValue(i, clientID);
+                calc.pushValue(i + 1, clientID);
+            }
+            calc.evictSessions();
+            System.out.printf("%,d clients seen: %,d live sessions, %,d values, %,d evicted, %.1f MB heap%n",
+                    (round + 1L) * perRound, calc.getSessionCount(), calc.getStoredValues(),
+                    calc.getEvictedSessions(), usedHeap() / 1e6);
+        }
+    }
+
+    // Push/pop over RMI through a ShardedCalculator on 1, 2, 4... up to the given number of servers,
+    // then add one more server to show only the stacks it now owns are moved
+    private static void benchmarkSharded(int nodes, int threads, int opsPerThread) throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            urls.add("rmi://localhost:" + (1101 + i) + "/CalculatorServer");
+        }
+        String[] clientIDs = new String[10_000];
+        for (int i = 0; i < clientIDs.length; i++) {
+            clientIDs[i] = "Shard-" + i;
+        }
+
+        double baseline = 0;
+        for (int count = 1; count <= nodes; count *= 2) {
+            ShardedCalculator calc = new ShardedCalculator(urls.subList(0, count));
+            runRemotePushPop(calc, clientIDs, threads, opsPerThread / 10);
+            long start = System.nanoTime();
+            runRemotePushPop(calc, clientIDs, threads, opsPerThread);
+            double throughput = 2.0 * threads * opsPerThread / ((System.nanoTime() - start) / 1e9);
+            baseline = count == 1 ? throughput : baseline;
+            System.out.printf("%d servers: %,.0f ops/s (%.2fx)%n", count, throughput, throughput / baseline);
+        }
+
+        if (nodes > 1) {
+            ShardedCalculator calc = new ShardedCalculator(urls.subList(0, nodes - 1));
+            for (String clientID : clientIDs) {
+                calc.pushValue(1, clientID);
+            }
+            int moved = calc.addNode(urls.get(nodes - 1));
+            System.out.printf("Adding server %d moved %,d of %,d stacks%n", nodes, moved, clientIDs.length);
+            for (String clientID : clientIDs) {
+                calc.pop(clientID);
+            }
+        }
+    }
+
+    // Push/pop through a FailoverCalculator against three replica processes, killing the leader half way
+    // through, and report throughput and latency for every second
+    private static void benchmarkReplicated(int seconds, int threads) throws Exception {
+        List<String> urls = new ArrayList<>();
+        List<Process> replicas = new ArrayList<>();
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        for (int port = 1201; port <= 1203; port++) {
+            urls.add("rmi://localhost:" + port + "/CalculatorServer");
+            replicas.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "-Dcalculator.replicas=1201,1202,1203", "CalculatorServer", String.valueOf(port))
+                    .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            FailoverCalculator calc = new FailoverCalculator(urls, 30_000);
+            calc.pushValue(1, "Replicated-warmup"); // Waits for the first election
+            calc.pop("Replicated-warmup");
+
+            LatencyHistogram interval = new LatencyHistogram();
+            LatencyHistogram total = new LatencyHistogram();
+            AtomicBoolean stop = new AtomicBoolean();
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String clientID = "Replicated-" + t;
+                results.add(pool.submit(() -> {
+                    for (int i = 0; !stop.get(); i++) {
+                        long start = System.nanoTime();
+                        calc.pushValue(i, clientID);
+                        calc.pop(clientID);
+                        interval.record((System.nanoTime() - start) / 2);
+                    }
+                    return null;
+                }));
+            }
+
+            for (int second = 1; second <= seconds; second++) {
+                if (second == seconds / 2 + 1) {
+                    String leader = calc.getLeaderUrl();
+                    replicas.get(urls.indexOf(leader)).destroyForcibly();
+                    System.out.println("Killed the leader at " + leader);
+                }
+                Thread.sleep(1000);
+                LatencyHistogram snapshot = interval.snapshot();
+                interval.reset();
+                System.out.printf("%2ds: %,8d ops/s, %s%n", second, snapshot.getCount(), snapshot.summary());
+                total.add(snapshot);
+            }
+            stop.set(true);
+            for (Future<?> result : results) {
+                result.get();
+            }
+            System.out.printf("Overall: %,.0f ops/s, %s%n", (double) total.getCount() / seconds, total.summary());
+        } finally {
+            pool.shutdownNow();
+            for (Process replica : replicas) {
+                replica.destroyForcibly();
+            }
+        }
+    }
+
+    private static void runRemotePushPop(Calculator calc, String[] clientIDs, int threads, int ops)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < ops; i++) {
+                    String clientID = clientIDs[(offset + i * threads) % clientIDs.length];
+                    calc.pushValue(i, clientID);
+                    calc.pop(clientID);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+    }
+
+    // Approximate heap used per pushed value
+    private static void benchmarkMemory(CalculatorImplementation calc, int values) throws RemoteException {
+        long before = usedHeap();
+        for (int i = 0; i < values; i++) {
+            calc.pushValue(i, "MemoryClient");
+        }
+        long after = usedHeap();
+        System.out.printf("Heap per pushed value: %.1f bytes (%d values)%n", (double) (after - before) / values,
+                values);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
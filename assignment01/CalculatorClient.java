@@ -8,6 +8,16 @@ import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class CalculatorClient {
 
@@ -143,6 +153,26 @@ public class CalculatorClient {
         }
     }
 
+    // Test delayPop() with a callback, which returns before the pop happens
+    @Test
+    public void testAsyncDelayPop() throws RemoteException {
+        try {
+            Calculator calc = (Calculator) Naming.lookup("rmi://localhost:1100/CalculatorServer");
+            calc.pushValue(10, "Client10");
+            CompletableFuture<Integer> popped = AsyncPop.delayPop(calc, 1000, "Client10");
+            Boolean result9 = !popped.isDone() && popped.get(10, TimeUnit.SECONDS) == 10;
+            if (result9) {
+                System.out.println("Async Delay Pop Test Passed");
+            } else {
+                System.out.println("Async Delay Pop Test Failed");
+            }
+            assertEquals(true, result9);
+        } catch (MalformedURLException | NotBoundException | RemoteException | InterruptedException
+                | ExecutionException | TimeoutException e) {
+            System.err.println("CalculatorClient exception: " + e.getMessage());
+        }
+    }
+
     // Test isEmtpy() method
     @Test
     public void testIsEmpty() throws RemoteException {
@@ -161,6 +191,151 @@ public class CalculatorClient {
         }
     }
 
+    // Testing pushValues() and execute() batch methods
+    @Test
+    public void testBatch() throws RemoteException {
+        try {
+            Calculator calc = (Calculator) Naming.lookup("rmi://localhost:1100/CalculatorServer");
+            calc.pushValues(new int[] { 10, 20, 30 }, "Client8");
+            int[] results = calc.execute(List.of(Op.pushOperation("lcm"), Op.pop(), Op.isEmpty(),
+                    Op.pushValue(10), Op.pushValue(20), Op.pushOperation("max"), Op.pop()), "Client8");
+            Boolean result7 = Arrays.equals(new int[] { 60, 1, 20 }, results);
+            if (result7) {
+                System.out.println("Batch Test Passed");
+            } else {
+                System.out.println("Batch Test Failed");
+            }
+            assertEquals(true, result7);
+        } catch (MalformedURLException | NotBoundException | RemoteException e) {
+            System.err.println("CalculatorClient exception: " + e.getMessage());
+        }
+    }
+
+    // Testing CalculatorPipeline sends queued calls with the next pop()
+    @Test
+    public void testPipeline() throws RemoteException {
+        try {
+            Calculator calc = new CalculatorPipeline(
+                    (Calculator) Naming.lookup("rmi://localhost:1100/CalculatorServer"));
+            calc.pushValue(10, "Client9");
+            calc.pushValue(20, "Client9");
+            calc.pushValue(30, "Client9");
+            calc.pushOperation("gcd", "Client9");
+            Boolean result8 = (calc.pop("Client9") == 10) && calc.isEmpty("Client9");
+            if (result8) {
+                System.out.println("Pipeline Test Passed");
+            } else {
+                System.out.println("Pipeline Test Failed");
+            }
+            assertEquals(true, result8);
+        } catch (MalformedURLException | NotBoundException | RemoteException e) {
+            System.err.println("CalculatorClient exception: " + e.getMessage());
+        }
+    }
+
+    // Testing CalculatorPipeline stops at a failing queued call, dropping the calls queued after it
+    @Test
+    public void testPipelineError() throws RemoteException {
+        try {
+            Calculator calc = new CalculatorPipeline(
+                    (Calculator) Naming.lookup("rmi://localhost:1100/CalculatorServer"));
+            calc.pushValue(10, "Client13");
+            calc.pushOperation("invalid", "Client13");
+            calc.pushValue(20, "Client13");
+            boolean thrown = false;
+            try {
+                calc.pop("Client13");
+            } catch (IllegalArgumentException e) {
+                thrown = true;
+            }
+            Boolean result12 = thrown && calc.pop("Client13") == 10 && calc.isEmpty("Client13");
+            if (result12) {
+                System.out.println("Pipeline Error Test Passed");
+            } else {
+                System.out.println("Pipeline Error Test Failed");
+            }
+            assertEquals(true, result12);
+        } catch (MalformedURLException | NotBoundException | RemoteException e) {
+            System.err.println("CalculatorClient exception: " + e.getMessage());
+        }
+    }
+
+    // Testing ShardedCalculator spreads clients over two servers, and moves their stacks when one is removed
+    @Test
+    public void testSharding() throws Exception {
+        CalculatorImplementation second = new CalculatorImplementation();
+        Registry registry = LocateRegistry.createRegistry(1101);
+        try {
+            registry.rebind("CalculatorServer", second);
+            ShardedCalculator calc = new ShardedCalculator(List.of("rmi://localhost:1100/CalculatorServer",
+                    "rmi://localhost:1101/CalculatorServer"));
+            for (int i = 0; i < 100; i++) {
+                calc.pushValues(new int[] { i, i + 1 }, "Client11-" + i);
+            }
+            boolean spread = !second.getClientIDs().isEmpty() && second.getClientIDs().size() < 100;
+            calc.removeNode("rmi://localhost:1101/CalculatorServer");
+            boolean moved = second.getClientIDs().isEmpty();
+            for (int i = 0; i < 100; i++) {
+                moved &= calc.pop("Client11-" + i) == i + 1 && calc.pop("Client11-" + i) == i;
+            }
+            Boolean result10 = spread && moved;
+            if (result10) {
+                System.out.println("Sharding Test Passed");
+            } else {
+                System.out.println("Sharding Test Failed");
+            }
+            assertEquals(true, result10);
+        } finally {
+            UnicastRemoteObject.unexportObject(second, true);
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+    }
+
+    // Testing a FailoverCalculator keeps the stack when the leader of three replicas fails
+    @Test
+    public void testReplication() throws Exception {
+        List<String> urls = List.of("rmi://localhost:1201/CalculatorServer", "rmi://localhost:1202/CalculatorServer",
+                "rmi://localhost:1203/CalculatorServer");
+        List<ReplicatedCalculator> replicas = new ArrayList<>();
+        List<Registry> registries = new ArrayList<>();
+        try {
+            for (int i = 0; i < urls.size(); i++) {
+                ReplicatedCalculator replica = new ReplicatedCalculator(i, urls);
+                Registry registry = LocateRegistry.createRegistry(1201 + i);
+                registry.rebind("CalculatorServer", replica);
+                replicas.add(replica);
+                registries.add(registry);
+            }
+            for (ReplicatedCalculator replica : replicas) {
+                replica.start();
+            }
+
+            FailoverCalculator calc = new FailoverCalculator(urls);
+            calc.pushValues(new int[] { 10, 20, 30 }, "Client12");
+            calc.pushOperation("max", "Client12");
+            for (ReplicatedCalculator replica : replicas) {
+                if (replica.isLeader()) {
+                    replica.shutdown(); // Refuses every call from now on, as if it had crashed
+                }
+            }
+            Boolean result11 = calc.pop("Client12") == 30 && calc.isEmpty("Client12");
+            if (result11) {
+                System.out.println("Replication Test Passed");
+            } else {
+                System.out.println("Replication Test Failed");
+            }
+            assertEquals(true, result11);
+        } finally {
+            for (ReplicatedCalculator replica : replicas) {
+                replica.shutdown();
+                UnicastRemoteObject.unexportObject(replica, true);
+            }
+            for (Registry registry : registries) {
+                UnicastRemoteObject.unexportObject(registry, true);
+            }
+        }
+    }
+
     // Testing delayPop with multiple threads to simulate clients.
     @Test
     public void testMultiThread() throws RemoteException {
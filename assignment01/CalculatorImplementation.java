@@ -2,34 +2,189 @@
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 // Implementation for Calculator
 public class CalculatorImplementation extends UnicastRemoteObject implements Calculator {
-    private final Map<String, Stack<Integer>> stacks;
-    private final ReentrantLock lock;
+    // Each client's stack is locked on its own, so clients never contend with each other
+    private final ConcurrentHashMap<String, ClientSession> sessions;
+
+    // Runs delayed pops when they fall due and sweeps idle sessions, and delivers delayed pop results
+    // to client callbacks, so the thread count stays the same however many delayed pops are pending
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService callbacks;
+
+    // Stacks with at least this many values are scanned in parallel on the common ForkJoinPool
+    private int parallelThreshold;
+
+    // Sessions unused for longer than the TTL are dropped, as are the least recently used ones
+    // once there are more than maxSessions, and no client may hold more than maxValuesPerClient values
+    private final long sessionTtlNanos;
+    private final int maxSessions;
+    private final int maxValuesPerClient;
+    private final boolean evictSessions;
+    private final AtomicBoolean evictionPending = new AtomicBoolean();
+    private final AtomicLong evictedSessions = new AtomicLong();
 
     protected CalculatorImplementation() throws RemoteException {
-        stacks = new HashMap<>();
-        lock = new ReentrantLock();
+        this(true);
     }
 
-    private Stack<Integer> getStack(String clientID) {
-        lock.lock();
+    // Without eviction every session is kept, for replicas whose stacks may only change through the commands
+    // they apply
+    CalculatorImplementation(boolean evictSessions) throws RemoteException {
+        this.evictSessions = evictSessions;
+        sessions = new ConcurrentHashMap<>();
+        parallelThreshold = Integer.getInteger("calculator.parallelThreshold", 1 << 20);
+        sessionTtlNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("calculator.sessionTtlMs", 30 * 60 * 1000));
+        maxSessions = Integer.getInteger("calculator.maxSessions", 100_000);
+        maxValuesPerClient = Integer.getInteger("calculator.maxValuesPerClient", 1 << 24);
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("delay-pop"));
+        callbacks = Executors.newFixedThreadPool(Integer.getInteger("calculator.callbackThreads", 4),
+                daemonThreads("pop-callback"));
 
-        try {
-            return stacks.computeIfAbsent(clientID, k -> new Stack<>());
-        } finally {
-            lock.unlock();
+        if (evictSessions) {
+            long sweepMillis = Long.getLong("calculator.sweepIntervalMs", 10_000);
+            scheduler.scheduleWithFixedDelay(this::evictSessions, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Change the size from which scans run in parallel
+    void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    // Splitting a scan only pays off for large stacks and when the common pool has more than one worker
+    private boolean scanInParallel(IntStack values) {
+        return values.size() >= parallelThreshold && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    private IntStack getStack(String clientID) {
+        return touchSession(clientID, System.nanoTime()).getStack();
+    }
+
+    // Find or create the client's session and mark it used at the given time. This runs with the map
+    // entry locked, so a session being returned here is never evicted at the same moment.
+    private ClientSession touchSession(String clientID, long time) {
+        ClientSession session = sessions.compute(clientID, (id, existing) -> {
+            if (existing == null) {
+                return new ClientSession(time);
+            }
+            existing.touch(time);
+            return existing;
+        });
+        if (evictSessions && sessions.size() > maxSessions && evictionPending.compareAndSet(false, true)) {
+            scheduler.execute(this::evictSessions);
+        }
+        return session;
+    }
+
+    // Drop sessions idle for longer than the TTL, then the least recently used ones above the cap
+    void evictSessions() {
+        evictionPending.set(false);
+        long now = System.nanoTime();
+        int evicted = 0;
+
+        List<Map.Entry<String, Long>> live = new ArrayList<>(sessions.size());
+        for (Map.Entry<String, ClientSession> entry : sessions.entrySet()) {
+            long lastAccess = entry.getValue().getLastAccess();
+            if (now - lastAccess > sessionTtlNanos) {
+                evicted += evictIfIdleSince(entry.getKey(), lastAccess);
+            } else {
+                live.add(Map.entry(entry.getKey(), lastAccess));
+            }
+        }
+
+        int excess = live.size() - maxSessions;
+        if (excess > 0) {
+            live.sort(Comparator.comparingLong(Map.Entry::getValue));
+            for (int i = 0; i < excess; i++) {
+                evicted += evictIfIdleSince(live.get(i).getKey(), live.get(i).getValue());
+            }
+        }
+
+        if (evicted > 0) {
+            evictedSessions.addAndGet(evicted);
+            System.out.println("Evicted " + evicted + " sessions, " + getSessionCount() + " live sessions holding "
+                    + getStoredValues() + " values");
+        }
+    }
+
+    // Remove the session only if nobody has used it since it was looked at
+    private int evictIfIdleSince(String clientID, long lastAccess) {
+        boolean[] removed = new boolean[1];
+        sessions.computeIfPresent(clientID, (id, session) -> {
+            if (session.getLastAccess() != lastAccess) {
+                return session;
+            }
+            removed[0] = true;
+            return null;
+        });
+        return removed[0] ? 1 : 0;
+    }
+
+    // Number of clients currently holding a stack
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    // Total values held across every client's stack
+    public long getStoredValues() {
+        long total = 0;
+        for (ClientSession session : sessions.values()) {
+            IntStack stack = session.getStack();
+            synchronized (stack) {
+                total += stack.size();
+            }
+        }
+        return total;
+    }
+
+    // Number of sessions evicted since the server started
+    public long getEvictedSessions() {
+        return evictedSessions.get();
+    }
+
+    // Refuse pushes that would take the client over its memory budget
+    private void checkCapacity(IntStack stack, int additional, String clientID) {
+        if (stack.size() + (long) additional > maxValuesPerClient) {
+            throw new IllegalStateException(
+                    "\n========================\nStack limit of " + maxValuesPerClient + " values reached for "
+                            + clientID + "\n========================\n");
         }
     }
 
     // Take val and push it on to the top of the stack.
     @Override
     public void pushValue(int val, String clientID) throws RemoteException {
-        Stack<Integer> stack = getStack(clientID);
-        stack.push(val);
+        IntStack stack = getStack(clientID);
+        synchronized (stack) {
+            checkCapacity(stack, 1, clientID);
+            stack.push(val);
+        }
     }
 
     // Euclidean algorithm for gcd of two values
@@ -40,11 +195,18 @@ public class CalculatorImplementation extends UnicastRemoteObject implements Cal
         return gcd(b, a % b); // formula for greatest common divisor
     }
 
-    // gcd of multiple values
-    private int gcd(Stack<Integer> values) {
-        int result = values.pop();
-        while (!values.isEmpty()) {
-            result = gcd(result, values.pop());
+    // gcd of multiple values, from the top of the stack down
+    private int gcd(IntStack values) {
+        if (scanInParallel(values)) {
+            int result = parallelGcd(values);
+            if (result > 0) {
+                return result;
+            }
+        }
+
+        int result = values.get(values.size() - 1);
+        for (int i = values.size() - 2; i >= 0; i--) {
+            result = gcd(result, values.get(i));
         }
         return result;
     }
@@ -54,15 +216,86 @@ public class CalculatorImplementation extends UnicastRemoteObject implements Cal
         return a * (b / gcd(a, b)); // Formula for lowest common multiple
     }
 
-    // lcm of multiple values
-    private int lcm(Stack<Integer> values) {
-        int result = values.pop();
-        while (!values.isEmpty()) {
-            result = lcm(result, values.pop());
+    // lcm of multiple values, from the top of the stack down
+    private int lcm(IntStack values) {
+        if (scanInParallel(values)) {
+            long result = parallelLcm(values);
+            if (result > 0) {
+                return (int) result;
+            }
+        }
+
+        int result = values.get(values.size() - 1);
+        for (int i = values.size() - 2; i >= 0; i--) {
+            result = lcm(result, values.get(i));
+        }
+        return result;
+    }
+
+    // min of multiple values
+    private int min(IntStack values) {
+        if (scanInParallel(values)) {
+            return values.stream().parallel().min().getAsInt();
+        }
+
+        int result = values.get(0);
+        for (int i = 1; i < values.size(); i++) {
+            result = Math.min(result, values.get(i));
+        }
+        return result;
+    }
+
+    // max of multiple values
+    private int max(IntStack values) {
+        if (scanInParallel(values)) {
+            return values.stream().parallel().max().getAsInt();
+        }
+
+        int result = values.get(0);
+        for (int i = 1; i < values.size(); i++) {
+            result = Math.max(result, values.get(i));
         }
         return result;
     }
 
+    // gcd of multiple values, reduced in chunks in parallel. Only exact when every value is positive,
+    // so any other value poisons the result as -1 and the caller falls back to the sequential scan.
+    private int parallelGcd(IntStack values) {
+        return values.stream().parallel()
+                .map(value -> value > 0 ? value : -1)
+                .reduce(0, (a, b) -> {
+                    if (a < 0 || b < 0) {
+                        return -1;
+                    }
+                    return a == 0 ? b : b == 0 ? a : gcd(a, b);
+                });
+    }
+
+    // lcm of multiple values, reduced in chunks in parallel. Only exact when every value is positive
+    // and the result fits in an int, anything else poisons the result as -1 and the caller falls back
+    // to the sequential scan.
+    private long parallelLcm(IntStack values) {
+        return values.stream().parallel()
+                .mapToLong(value -> value > 0 ? value : -1)
+                .reduce(1, (a, b) -> {
+                    if (a < 0 || b < 0) {
+                        return -1;
+                    }
+                    long result = a / gcd(a, b) * b;
+                    return result <= Integer.MAX_VALUE ? result : -1;
+                });
+    }
+
+    // Euclidean algorithm for gcd of two 64-bit values
+    private long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
     // Push a String containing an operator("min", "max", "lcm", "gcd") to the stack,
     // which will cause the server to pop all the values on the stack and:
     // for min - push the min value of all the popped values;
@@ -71,22 +304,29 @@ public class CalculatorImplementation extends UnicastRemoteObject implements Cal
     // for gcd - push the greatest common divisor of all the popped values
     @Override
     public void pushOperation(String operator, String clientID) throws RemoteException {
-        Stack<Integer> stack = getStack(clientID);
+        IntStack stack = getStack(clientID);
+        synchronized (stack) {
+            applyOperation(operator, stack);
+        }
+    }
 
+    // pushOperation on a stack the caller has locked
+    private void applyOperation(String operator, IntStack stack) {
         if (stack.isEmpty()) {  // Base case: if stack is empty, return
             return;
         }
 
+        // Use the stack's running aggregates when they are valid, otherwise scan every value
         int result;
         switch (operator) {
             case "min" ->
-                result = stack.stream().min(Integer::compare).orElseThrow();
+                result = stack.hasMinMax() ? stack.getMin() : min(stack);
             case "max" ->
-                result = stack.stream().max(Integer::compare).orElseThrow();
+                result = stack.hasMinMax() ? stack.getMax() : max(stack);
             case "lcm" ->
-                result = lcm(stack);
+                result = stack.hasLcm() ? stack.getLcm() : lcm(stack);
             case "gcd" ->
-                result = gcd(stack);
+                result = stack.hasGcd() ? stack.getGcd() : gcd(stack);
             default ->
                 throw new IllegalArgumentException(
                         "\n========================\nInvalid Operator\n========================\n");
@@ -99,7 +339,14 @@ public class CalculatorImplementation extends UnicastRemoteObject implements Cal
     // Pop the top of the stack and return it to the client.
     @Override
     public int pop(String clientID) throws RemoteException {
-        Stack<Integer> stack = getStack(clientID);
+        IntStack stack = getStack(clientID);
+        synchronized (stack) {
+            return popValue(stack);
+        }
+    }
+
+    // pop on a stack the caller has locked
+    private int popValue(IntStack stack) {
         if (stack.isEmpty()) {
             System.err.println(
                     "\n========================\nThe Stack is Empty zzz...\n========================\n");
@@ -110,18 +357,145 @@ public class CalculatorImplementation extends UnicastRemoteObject implements Cal
     // Return true if the stack is empty, false otherwise.
     @Override
     public boolean isEmpty(String clientID) throws RemoteException {
-        Stack<Integer> stack = getStack(clientID);
-        return stack.isEmpty();
+        IntStack stack = getStack(clientID);
+        synchronized (stack) {
+            return stack.isEmpty();
+        }
+    }
+
+    // Take every value in vals and push them on to the stack in order.
+    @Override
+    public void pushValues(int[] vals, String clientID) throws RemoteException {
+        IntStack stack = getStack(clientID);
+        synchronized (stack) {
+            checkCapacity(stack, vals.length, clientID);
+            for (int val : vals) {
+                stack.push(val);
+            }
+        }
+    }
+
+    // Carry out each operation of the program in order, as the matching single call would,
+    // and return the results of every pop and isEmpty in order (isEmpty as 1 for true, 0 for false).
+    @Override
+    public int[] execute(List<Op> program, String clientID) throws RemoteException {
+        IntStack stack = getStack(clientID);
+        int[] results = new int[program.size()];
+        int count = 0;
+        synchronized (stack) {
+            for (Op op : program) {
+                switch (op.getType()) {
+                    case PUSH_VALUE -> {
+                        checkCapacity(stack, 1, clientID);
+                        stack.push(op.getValue());
+                    }
+                    case PUSH_OPERATION ->
+                        applyOperation(op.getOperator(), stack);
+                    case POP ->
+                        results[count++] = popValue(stack);
+                    case IS_EMPTY ->
+                        results[count++] = stack.isEmpty() ? 1 : 0;
+                }
+            }
+        }
+        return Arrays.copyOf(results, count);
+    }
+
+    // Return the client IDs that hold a stack on this server.
+    @Override
+    public List<String> getClientIDs() throws RemoteException {
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    // Remove the client's stack and return its values, from the bottom of the stack up.
+    // A call already holding the stack when it is removed applies to the removed copy, so stacks
+    // are best moved while their client is idle.
+    @Override
+    public int[] exportStack(String clientID) throws RemoteException {
+        ClientSession session = sessions.remove(clientID);
+        if (session == null) {
+            return new int[0];
+        }
+        IntStack stack = session.getStack();
+        synchronized (stack) {
+            int[] values = stack.toArray();
+            stack.clear();
+            return values;
+        }
+    }
+
+    // Place values, bottom first, beneath anything already on the client's stack, so values pushed
+    // while the stack was being moved stay on top.
+    @Override
+    public void importStack(String clientID, int[] values) throws RemoteException {
+        IntStack stack = getStack(clientID);
+        synchronized (stack) {
+            checkCapacity(stack, values.length, clientID);
+            int[] existing = stack.toArray();
+            stack.clear();
+            for (int value : values) {
+                stack.push(value);
+            }
+            for (int value : existing) {
+                stack.push(value);
+            }
+        }
     }
 
     // Wait millis milliseconds before carrying out the pop operation as above.
+    // The RMI call is synchronous so its thread still waits, use the callback version to avoid that.
     @Override
     public int delayPop(int millis, String clientID) throws RemoteException {
+        keepUntilPopped(millis, clientID);
+        ScheduledFuture<Integer> result = scheduler.schedule(() -> pop(clientID), millis, TimeUnit.MILLISECONDS);
         try {
-            Thread.sleep(millis);
+            return result.get();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            result.cancel(false);
+            throw new RemoteException("Interrupted waiting for delayed pop");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause; // e.g. EmptyStackException, as from pop()
+            }
+            throw new RemoteException("Delayed pop failed", e.getCause());
+        }
+    }
+
+    // Schedule the pop and return straight away, the result is passed to the client's callback.
+    @Override
+    public void delayPop(int millis, String clientID, PopCallback callback) throws RemoteException {
+        keepUntilPopped(millis, clientID);
+        scheduler.schedule(() -> {
+            int value;
+            try {
+                value = pop(clientID);
+            } catch (RuntimeException | RemoteException e) {
+                callbacks.execute(() -> notifyFailed(callback, e.toString()));
+                return;
+            }
+            callbacks.execute(() -> notifyPopped(callback, value));
+        }, millis, TimeUnit.MILLISECONDS);
+    }
+
+    // A pending delayed pop counts as use, so the session is not evicted before the pop runs
+    private void keepUntilPopped(int millis, String clientID) {
+        touchSession(clientID, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(millis, 0)));
+    }
+
+    private void notifyPopped(PopCallback callback, int value) {
+        try {
+            callback.popped(value);
+        } catch (RemoteException e) {
+            System.err.println("Failed to deliver delayed pop: " + e.getMessage());
+        }
+    }
+
+    private void notifyFailed(PopCallback callback, String message) {
+        try {
+            callback.failed(message);
+        } catch (RemoteException e) {
+            System.err.println("Failed to deliver delayed pop: " + e.getMessage());
         }
-        return pop(clientID);
     }
 }
@@ -0,0 +1,181 @@
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Load generator for a running CalculatorServer, driving the Calculator interface over RMI from many
+// clients, each with its own stack and thread. The mix gives the relative weight of each call, e.g.
+//   java CalculatorLoadTest rmi://localhost:1100/CalculatorServer 64 30 pushValue=50,pop=40,delayPop=1
+// With a target rate each client sends at a fixed pace, and latency is measured from when each call
+// was due rather than when it was sent, so a stalled server shows up in the tail instead of hiding it.
+// Usage: java CalculatorLoadTest <url> [clients] [seconds] [mix] [delayMillis] [targetOpsPerSecond]
+public class CalculatorLoadTest {
+    private enum Call {
+        PUSH_VALUE("pushValue"), PUSH_OPERATION("pushOperation"), POP("pop"), IS_EMPTY("isEmpty"),
+        DELAY_POP("delayPop");
+
+        private final String name;
+
+        Call(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final String[] OPERATORS = { "min", "max", "lcm", "gcd" };
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "rmi://localhost:1100/CalculatorServer";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        Map<Call, Integer> mix = parseMix(args.length > 3 ? args[3]
+                : "pushValue=45,pushOperation=5,pop=40,isEmpty=9,delayPop=1");
+        int delayMillis = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        double targetRate = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+
+        Calculator calc = (Calculator) Naming.lookup(url);
+        Map<Call, LatencyHistogram> latencies = new EnumMap<>(Call.class);
+        for (Call call : Call.values()) {
+            latencies.put(call, new LatencyHistogram());
+        }
+        LatencyHistogram interval = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        AtomicBoolean recording = new AtomicBoolean();
+        AtomicBoolean stop = new AtomicBoolean();
+
+        System.out.println("Driving " + url + " with " + clients + " clients for " + seconds + "s, mix " + mix
+                + (targetRate > 0 ? String.format(", %,.0f ops/s target", targetRate) : ", closed loop"));
+        long intervalNanos = targetRate > 0 ? (long) (1e9 * clients / targetRate) : 0;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<?>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            String clientID = "LoadClient-" + c;
+            results.add(pool.submit(() -> {
+                runClient(calc, clientID, mix, delayMillis, intervalNanos, latencies, interval, errors, recording,
+                        stop);
+                return null;
+            }));
+        }
+
+        // Warm up before recording, so JIT compilation and connection setup are not measured
+        Thread.sleep(Math.min(5, Math.max(1, seconds / 5)) * 1000L);
+        recording.set(true);
+        interval.reset();
+        long start = System.nanoTime();
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep(1000);
+            LatencyHistogram snapshot = interval.snapshot();
+            interval.reset();
+            System.out.printf("%3ds: %,9d ops/s, %s%n", second, snapshot.getCount(), snapshot.summary());
+        }
+        stop.set(true);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+
+        LatencyHistogram total = new LatencyHistogram();
+        for (Call call : Call.values()) {
+            LatencyHistogram histogram = latencies.get(call);
+            total.add(histogram);
+            if (histogram.getCount() > 0) {
+                System.out.printf("%-14s %,10d calls, %s%n", call.name, histogram.getCount(), histogram.summary());
+            }
+        }
+        System.out.printf("Throughput: %,.0f ops/s, %d errors%n", total.getCount() / elapsed, errors.get());
+        System.out.printf("Latency: %s%n", total.summary());
+    }
+
+    private static void runClient(Calculator calc, String clientID, Map<Call, Integer> mix, int delayMillis,
+            long intervalNanos, Map<Call, LatencyHistogram> latencies, LatencyHistogram interval, AtomicLong errors,
+            AtomicBoolean recording, AtomicBoolean stop) {
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int size = 0; // Values this client has on its stack, so pops never hit an empty stack
+        long due = System.nanoTime();
+        while (!stop.get()) {
+            if (intervalNanos > 0) {
+                due += intervalNanos;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                due = System.nanoTime();
+            }
+
+            Call call = pick(mix, random.nextInt(totalWeight));
+            if ((call == Call.POP || call == Call.DELAY_POP) && size == 0) {
+                call = Call.PUSH_VALUE;
+            }
+            try {
+                switch (call) {
+                    case PUSH_VALUE -> {
+                        calc.pushValue(1 + random.nextInt(100), clientID);
+                        size++;
+                    }
+                    case PUSH_OPERATION -> {
+                        calc.pushOperation(OPERATORS[random.nextInt(OPERATORS.length)], clientID);
+                        size = Math.min(size, 1);
+                    }
+                    case POP -> {
+                        calc.pop(clientID);
+                        size--;
+                    }
+                    case IS_EMPTY -> calc.isEmpty(clientID);
+                    case DELAY_POP -> {
+                        calc.delayPop(delayMillis, clientID);
+                        size--;
+                    }
+                }
+            } catch (RemoteException | RuntimeException e) {
+                errors.incrementAndGet();
+                continue;
+            }
+
+            if (recording.get()) {
+                long latency = System.nanoTime() - due;
+                latencies.get(call).record(latency);
+                interval.record(latency);
+            }
+        }
+    }
+
+    private static Call pick(Map<Call, Integer> mix, int point) {
+        for (Map.Entry<Call, Integer> entry : mix.entrySet()) {
+            point -= entry.getValue();
+            if (point < 0) {
+                return entry.getKey();
+            }
+        }
+        return Call.PUSH_VALUE;
+    }
+
+    // Weights such as "pushValue=50,pop=40,delayPop=1", calls left out are not made
+    private static Map<Call, Integer> parseMix(String spec) {
+        Map<Call, Integer> mix = new EnumMap<>(Call.class);
+        for (String part : spec.split(",")) {
+            String[] weight = part.trim().split("=");
+            Call call = null;
+            for (Call candidate : Call.values()) {
+                if (candidate.name.equalsIgnoreCase(weight[0])) {
+                    call = candidate;
+                }
+            }
+            if (call == null || weight.length != 2) {
+                throw new IllegalArgumentException("Unknown call in mix: " + part);
+            }
+            mix.put(call, Integer.parseInt(weight[1]));
+        }
+        return mix;
+    }
+}
@@ -0,0 +1,106 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Client-side Calculator that queues pushValue and pushOperation calls and sends them in one
+// execute() round trip together with the next call that needs a result from the server.
+// Errors from a queued call, such as an invalid operator, surface on that next call. As with execute(),
+// the batch stops at the failing call: the calls before it stay applied, while the calls queued after it
+// and the next call itself are dropped.
+public class CalculatorPipeline implements Calculator {
+    private final Calculator calc;
+    private final Map<String, List<Op>> pending = new HashMap<>();
+
+    public CalculatorPipeline(Calculator calc) {
+        this.calc = calc;
+    }
+
+    @Override
+    public void pushValue(int val, String clientID) {
+        queue(clientID, Op.pushValue(val));
+    }
+
+    @Override
+    public void pushOperation(String operator, String clientID) {
+        queue(clientID, Op.pushOperation(operator));
+    }
+
+    @Override
+    public int pop(String clientID) throws RemoteException {
+        int[] results = send(clientID, Op.pop());
+        return results[results.length - 1];
+    }
+
+    @Override
+    public boolean isEmpty(String clientID) throws RemoteException {
+        int[] results = send(clientID, Op.isEmpty());
+        return results[results.length - 1] == 1;
+    }
+
+    @Override
+    public int delayPop(int millis, String clientID) throws RemoteException {
+        flush(clientID);
+        return calc.delayPop(millis, clientID);
+    }
+
+    @Override
+    public void delayPop(int millis, String clientID, PopCallback callback) throws RemoteException {
+        flush(clientID);
+        calc.delayPop(millis, clientID, callback);
+    }
+
+    @Override
+    public void pushValues(int[] vals, String clientID) throws RemoteException {
+        flush(clientID);
+        calc.pushValues(vals, clientID);
+    }
+
+    @Override
+    public int[] execute(List<Op> program, String clientID) throws RemoteException {
+        List<Op> batch = take(clientID);
+        batch.addAll(program);
+        return calc.execute(batch, clientID);
+    }
+
+    @Override
+    public List<String> getClientIDs() throws RemoteException {
+        return calc.getClientIDs();
+    }
+
+    @Override
+    public int[] exportStack(String clientID) throws RemoteException {
+        flush(clientID);
+        return calc.exportStack(clientID);
+    }
+
+    @Override
+    public void importStack(String clientID, int[] values) throws RemoteException {
+        flush(clientID);
+        calc.importStack(clientID, values);
+    }
+
+    // Send any queued calls for the client now
+    public void flush(String clientID) throws RemoteException {
+        List<Op> batch = take(clientID);
+        if (!batch.isEmpty()) {
+            calc.execute(batch, clientID);
+        }
+    }
+
+    private int[] send(String clientID, Op op) throws RemoteException {
+        List<Op> batch = take(clientID);
+        batch.add(op);
+        return calc.execute(batch, clientID);
+    }
+
+    private synchronized void queue(String clientID, Op op) {
+        pending.computeIfAbsent(clientID, k -> new ArrayList<>()).add(op);
+    }
+
+    private synchronized List<Op> take(String clientID) {
+        List<Op> batch = pending.remove(clientID);
+        return batch != null ? batch : new ArrayList<>();
+    }
+}
@@ -2,24 +2,61 @@
 
 import java.net.MalformedURLException;
 import java.rmi.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CalculatorServer {
 
+    // Usage: java CalculatorServer [port], where port defaults to 1100.
+    // Several servers on different ports can be combined with ShardedCalculator.
+    // With -Dcalculator.replicas=1201,1202,1203 the server is one replica of a ReplicatedCalculator
+    // running on each of those ports, for use through FailoverCalculator.
     public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 1100;
+        String replicas = System.getProperty("calculator.replicas");
         try {
+            if (replicas != null) {
+                startReplica(port, replicas);
+                return;
+            }
+
             // Create a new CalculatorImplementation object instance
             CalculatorImplementation calc = new CalculatorImplementation();
 
-            // Create & export the remote registry instance on port 1100
-            java.rmi.registry.LocateRegistry.createRegistry(1100);
+            // Create & export the remote registry instance on the port
+            java.rmi.registry.LocateRegistry.createRegistry(port);
 
             // Bind this object instance to the name "CalculatorServer"
-            Naming.rebind("rmi://localhost:1100/CalculatorServer", calc);
+            Naming.rebind("rmi://localhost:" + port + "/CalculatorServer", calc);
 
-            System.out.println("CalculatorServer is running...");
+            System.out.println("CalculatorServer is running on port " + port + "...");
 
         } catch (MalformedURLException | RemoteException e) {
             System.err.println("Server Exception: " + e.toString());
         }
     }
+
+    private static void startReplica(int port, String replicas) throws MalformedURLException, RemoteException {
+        // Calls to a replica that has hung must fail, so the others can elect a new leader
+        if (System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null) {
+            System.setProperty("sun.rmi.transport.tcp.responseTimeout", "2000");
+        }
+
+        List<String> urls = new ArrayList<>();
+        for (String replica : replicas.split(",")) {
+            urls.add("rmi://localhost:" + replica.trim() + "/CalculatorServer");
+        }
+        int id = urls.indexOf("rmi://localhost:" + port + "/CalculatorServer");
+        if (id < 0) {
+            System.err.println("Port " + port + " is not one of the replicas " + replicas);
+            return;
+        }
+
+        ReplicatedCalculator calc = new ReplicatedCalculator(id, urls);
+        java.rmi.registry.LocateRegistry.createRegistry(port);
+        Naming.rebind(urls.get(id), calc);
+        calc.start();
+
+        System.out.println("CalculatorServer replica " + id + " is running on port " + port + "...");
+    }
 }
@@ -0,0 +1,25 @@
+// A client's stack along with when it was last used, so idle clients can be evicted.
+// lastAccess is only moved forward, and only while the session's map entry is locked.
+public class ClientSession {
+    private final IntStack stack = new IntStack();
+    private volatile long lastAccess;
+
+    public ClientSession(long now) {
+        lastAccess = now;
+    }
+
+    public IntStack getStack() {
+        return stack;
+    }
+
+    // System.nanoTime() of the last use, or of a pending delayed pop if that is later
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    public void touch(long time) {
+        if (time - lastAccess > 0) {
+            lastAccess = time;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Client-side Calculator for a group of ReplicatedCalculator servers. Calls go to the current leader,
+// following the leader hints of the other replicas and retrying through an election, so a failed
+// leader only delays calls. Commands carry this client's session and a sequence number, so a command
+// retried after the leader failed mid-call is applied once.
+public class FailoverCalculator implements Calculator {
+    private static final long RETRY_MILLIS = 50;
+
+    // Interface for a call that may be retried on another replica
+    private interface Call<T> {
+        T apply(Calculator replica) throws RemoteException;
+    }
+
+    private final List<String> urls;
+    private final long timeoutMillis;
+    private final String session = UUID.randomUUID().toString();
+    private final AtomicLong sequence = new AtomicLong();
+
+    // The replica believed to be the leader, and the stubs of replicas looked up so far
+    private volatile String leaderUrl;
+    private final Map<String, Calculator> stubs = new ConcurrentHashMap<>();
+
+    public FailoverCalculator(List<String> urls) {
+        this(urls, Long.getLong("calculator.failoverTimeoutMs", 10_000));
+    }
+
+    public FailoverCalculator(List<String> urls, long timeoutMillis) {
+        this.urls = new ArrayList<>(urls);
+        this.timeoutMillis = timeoutMillis;
+        this.leaderUrl = urls.get(0);
+    }
+
+    // URL of the replica calls are currently sent to, the leader as of the last successful call
+    public String getLeaderUrl() {
+        return leaderUrl;
+    }
+
+    @Override
+    public void pushValue(int val, String clientID) throws RemoteException {
+        submit(clientID, List.of(Op.pushValue(val)));
+    }
+
+    @Override
+    public void pushOperation(String operator, String clientID) throws RemoteException {
+        submit(clientID, List.of(Op.pushOperation(operator)));
+    }
+
+    @Override
+    public int pop(String clientID) throws RemoteException {
+        return submit(clientID, List.of(Op.pop()))[0];
+    }
+
+    @Override
+    public boolean isEmpty(String clientID) throws RemoteException {
+        return call(replica -> replica.isEmpty(clientID));
+    }
+
+    // Waits on the client, so the pop still happens if the leader fails during the delay
+    @Override
+    public int delayPop(int millis, String clientID) throws RemoteException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted waiting for delayed pop");
+        }
+        return pop(clientID);
+    }
+
+    @Override
+    public void delayPop(int millis, String clientID, PopCallback callback) throws RemoteException {
+        call(replica -> {
+            replica.delayPop(millis, clientID, callback);
+            return null;
+        });
+    }
+
+    @Override
+    public void pushValues(int[] vals, String clientID) throws RemoteException {
+        List<Op> program = new ArrayList<>(vals.length);
+        for (int val : vals) {
+            program.add(Op.pushValue(val));
+        }
+        submit(clientID, program);
+    }
+
+    @Override
+    public int[] execute(List<Op> program, String clientID) throws RemoteException {
+        return submit(clientID, program);
+    }
+
+    @Override
+    public List<String> getClientIDs() throws RemoteException {
+        return call(Calculator::getClientIDs);
+    }
+
+    @Override
+    public int[] exportStack(String clientID) throws RemoteException {
+        return call(replica -> replica.exportStack(clientID));
+    }
+
+    @Override
+    public void importStack(String clientID, int[] values) throws RemoteException {
+        call(replica -> {
+            replica.importStack(clientID, values);
+            return null;
+        });
+    }
+
+    // The same sequence number is used for every retry of the command
+    private int[] submit(String clientID, List<Op> program) throws RemoteException {
+        long next = sequence.incrementAndGet();
+        return call(replica -> ((RaftNode) replica).submit(clientID, program, session, next));
+    }
+
+    // Make the call on the leader, moving to the hinted leader or the next replica until it succeeds
+    // or the timeout passes. Errors from the calculator itself, such as an empty stack, are not retried.
+    private <T> T call(Call<T> call) throws RemoteException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            String url = leaderUrl;
+            RemoteException failure;
+            try {
+                return call.apply(leader(url));
+            } catch (NotLeaderException e) {
+                failure = e;
+                moveTo(url, e.getLeaderUrl());
+            } catch (RemoteException e) {
+                failure = e;
+                stubs.remove(url); // Look it up again in case the replica restarted
+                moveTo(url, null);
+            } catch (NotBoundException | MalformedURLException e) {
+                failure = new RemoteException("No calculator bound at " + url, e);
+                moveTo(url, null);
+            }
+
+            if (System.nanoTime() > deadline) {
+                throw failure;
+            }
+            if (failure instanceof NotLeaderException notLeader && notLeader.getLeaderUrl() != null) {
+                continue; // Go straight to the leader it named
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw failure;
+            }
+        }
+    }
+
+    private Calculator leader(String url) throws RemoteException, NotBoundException, MalformedURLException {
+        Calculator stub = stubs.get(url);
+        if (stub == null) {
+            stub = (Calculator) Naming.lookup(url);
+            stubs.put(url, stub);
+        }
+        return stub;
+    }
+
+    // Switch to the hinted leader, or else the replica after the one that failed
+    private synchronized void moveTo(String failedUrl, String hintUrl) {
+        if (!failedUrl.equals(leaderUrl)) {
+            return; // Another thread has already moved on
+        }
+        leaderUrl = hintUrl != null ? hintUrl : urls.get((urls.indexOf(failedUrl) + 1) % urls.size());
+    }
+}
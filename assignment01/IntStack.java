@@ -0,0 +1,158 @@
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.stream.IntStream;
+
+// Stack of primitive ints backed by a growable array, 4 bytes per value with no boxing.
+// Running min, max, gcd and lcm of the values are kept as they are pushed, so reducing the whole
+// stack is O(1). A pop invalidates them until the stack is next cleared or emptied, and callers
+// then fall back to scanning the values.
+// Not thread-safe, callers lock on the stack for each operation.
+public class IntStack {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] values;
+    private int size;
+
+    // Running aggregates of every value on the stack, valid only while the matching flag is set
+    private boolean minMaxValid;
+    private int min;
+    private int max;
+
+    // Only kept while every value is positive, where the result does not depend on the order the
+    // values are combined in. The lcm is held in 64 bits and dropped if it leaves the int range.
+    private boolean gcdValid;
+    private int gcd;
+    private boolean lcmValid;
+    private long lcm;
+
+    public IntStack() {
+        values = new int[INITIAL_CAPACITY];
+    }
+
+    public void push(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+
+        if (size == 1) {
+            minMaxValid = true;
+            min = value;
+            max = value;
+            gcdValid = value > 0;
+            gcd = value;
+            lcmValid = value > 0;
+            lcm = value;
+            return;
+        }
+
+        if (minMaxValid) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        if (gcdValid) {
+            gcdValid = value > 0;
+            gcd = gcd(gcd, value);
+        }
+        if (lcmValid) {
+            lcm = value > 0 ? lcm / gcd(lcm, value) * value : -1;
+            lcmValid = lcm > 0 && lcm <= Integer.MAX_VALUE;
+        }
+    }
+
+    public int pop() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        invalidateAggregates();
+        int value = values[--size];
+        if (values.length > INITIAL_CAPACITY * 64 && size < values.length / 4) {
+            values = Arrays.copyOf(values, values.length / 2); // Give back memory as the stack drains
+        }
+        return value;
+    }
+
+    // Value at the given position, 0 being the bottom of the stack
+    public int get(int index) {
+        return values[index];
+    }
+
+    // Stream of the values from the bottom of the stack up, which can be split for parallel reductions
+    public IntStream stream() {
+        return Arrays.stream(values, 0, size);
+    }
+
+    // Copy of the values from the bottom of the stack up
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Remove every value, releasing the backing array if it has grown large
+    public void clear() {
+        size = 0;
+        invalidateAggregates();
+        if (values.length > INITIAL_CAPACITY * 64) {
+            values = new int[INITIAL_CAPACITY];
+        }
+    }
+
+    public boolean hasMinMax() {
+        return minMaxValid;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public boolean hasGcd() {
+        return gcdValid;
+    }
+
+    public int getGcd() {
+        return gcd;
+    }
+
+    public boolean hasLcm() {
+        return lcmValid;
+    }
+
+    public int getLcm() {
+        return (int) lcm;
+    }
+
+    private void invalidateAggregates() {
+        minMaxValid = false;
+        gcdValid = false;
+        lcmValid = false;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,49 @@
+import java.io.Serializable;
+import java.util.List;
+
+// A command in the replicated calculator's log: a program of operations on one client's stack,
+// together with the term of the leader that created it. The session and sequence identify the
+// request, so a retried command that already committed is not applied twice.
+public class LogEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long term;
+    private final String clientID;
+    private final List<Op> program;
+    private final String session;
+    private final long sequence;
+
+    public LogEntry(long term, String clientID, List<Op> program, String session, long sequence) {
+        this.term = term;
+        this.clientID = clientID;
+        this.program = program;
+        this.session = session;
+        this.sequence = sequence;
+    }
+
+    // Entry a new leader appends to commit everything from earlier terms
+    public static LogEntry noOp(long term) {
+        return new LogEntry(term, null, List.of(), null, 0);
+    }
+
+    public long getTerm() {
+        return term;
+    }
+
+    public String getClientID() {
+        return clientID;
+    }
+
+    public List<Op> getProgram() {
+        return program;
+    }
+
+    public boolean isNoOp() {
+        return clientID == null;
+    }
+
+    // Key used to recognise a retried request, or null if the request is never retried
+    public String getRequestKey() {
+        return session != null ? session + ":" + sequence : null;
+    }
+}
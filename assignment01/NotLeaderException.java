@@ -0,0 +1,18 @@
+import java.rmi.RemoteException;
+
+// Thrown by a replica that cannot serve a request because it is not the leader, with the leader's
+// URL when the replica knows it.
+public class NotLeaderException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    private final String leaderUrl;
+
+    public NotLeaderException(String leaderUrl) {
+        super(leaderUrl != null ? "Not the leader, try " + leaderUrl : "Not the leader, no leader elected yet");
+        this.leaderUrl = leaderUrl;
+    }
+
+    public String getLeaderUrl() {
+        return leaderUrl;
+    }
+}
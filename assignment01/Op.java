@@ -0,0 +1,48 @@
+import java.io.Serializable;
+
+// A single calculator operation, sent in batches through Calculator.execute()
+public class Op implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        PUSH_VALUE, PUSH_OPERATION, POP, IS_EMPTY
+    }
+
+    private final Type type;
+    private final int value;
+    private final String operator;
+
+    private Op(Type type, int value, String operator) {
+        this.type = type;
+        this.value = value;
+        this.operator = operator;
+    }
+
+    public static Op pushValue(int val) {
+        return new Op(Type.PUSH_VALUE, val, null);
+    }
+
+    public static Op pushOperation(String operator) {
+        return new Op(Type.PUSH_OPERATION, 0, operator);
+    }
+
+    public static Op pop() {
+        return new Op(Type.POP, 0, null);
+    }
+
+    public static Op isEmpty() {
+        return new Op(Type.IS_EMPTY, 0, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+}
@@ -0,0 +1,11 @@
+import java.rmi.*;
+
+// Exported by a client to receive the result of an asynchronous delayPop.
+public interface PopCallback extends Remote {
+
+    // Called with the popped value once the delay has passed.
+    public void popped(int value) throws RemoteException;
+
+    // Called instead of popped() if the pop failed, e.g. because the stack was empty.
+    public void failed(String message) throws RemoteException;
+}
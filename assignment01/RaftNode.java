@@ -0,0 +1,28 @@
+import java.io.Serializable;
+import java.rmi.*;
+import java.util.List;
+
+// Calls between the replicas of a replicated calculator, following the Raft consensus algorithm,
+// and the entry point clients use to submit commands to the leader.
+public interface RaftNode extends Remote {
+
+    public record VoteReply(long term, boolean granted) implements Serializable {
+    }
+
+    // matchIndex is the last index known to match the leader's log, or a hint of where to retry from
+    public record AppendReply(long term, boolean success, long matchIndex) implements Serializable {
+    }
+
+    // Ask for this replica's vote to become leader for the term.
+    public VoteReply requestVote(long term, int candidateId, long lastLogIndex, long lastLogTerm)
+            throws RemoteException;
+
+    // Replicate entries following prevLogIndex from the leader, or just keep the leader's lease when empty.
+    public AppendReply appendEntries(long term, int leaderId, long prevLogIndex, long prevLogTerm,
+            List<LogEntry> entries, long leaderCommit) throws RemoteException;
+
+    // Commit the program to the log and apply it to the client's stack, returning the result of every
+    // pop and isEmpty as execute() does. Resubmitting the same session and sequence after a failure
+    // returns the original result instead of applying the program again.
+    public int[] submit(String clientID, List<Op> program, String session, long sequence) throws RemoteException;
+}
@@ -0,0 +1,738 @@
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One replica of a calculator whose stacks are kept on several servers, so it survives any minority
+// of them failing. Every command that changes a stack is appended to a log that the replicas agree on
+// with the Raft consensus algorithm, and each replica applies committed commands in log order to its
+// own CalculatorImplementation. Only the elected leader accepts commands; it answers isEmpty and
+// getClientIDs from its own stacks while a majority has acknowledged it within the election timeout.
+// Commands that arrive while an append is in flight go out together in the next one, so the cost of
+// a round trip is shared.
+// The term, vote and log are kept in memory only, so replicas are crash-stop: one that stops must not be
+// started again under the same id, as it could vote twice in a term or forget entries it acknowledged.
+// The group keeps working while a majority of the original replicas is up. Applied entries are dropped
+// from the front of the log, so it holds at most about calculator.replication.maxLog entries, and a
+// replica that falls further behind than that can no longer catch up.
+public class ReplicatedCalculator extends UnicastRemoteObject implements Calculator, RaftNode {
+    private static final long serialVersionUID = 1L;
+
+    private enum Role {
+        FOLLOWER, CANDIDATE, LEADER
+    }
+
+    private static final long HEARTBEAT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long ELECTION_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+    private static final long COMMIT_TIMEOUT_MILLIS = 5_000;
+    private static final int MAX_RECENT_REQUESTS = 100_000;
+    private static final int TRIM_BATCH = 4096;
+
+    private final int id;
+    private final List<String> urls;
+    private final AtomicReferenceArray<RaftNode> peers;
+    private final int maxBatch;
+    private final int maxLog;
+
+    // The stacks, changed only by applying committed log entries
+    private final CalculatorImplementation stacks;
+
+    // Guards all of the Raft state below, and is signalled when entries are added or the role changes
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private Role role = Role.FOLLOWER;
+    private long currentTerm;
+    private int votedFor = -1;
+    private int leaderId = -1;
+    private final List<LogEntry> log = new ArrayList<>(); // Entry at index i is stored at i - logStart - 1
+    private long logStart; // Index and term of the last entry dropped from the front of the log
+    private long logStartTerm;
+    private long commitIndex;
+    private long lastApplied;
+    private long electionDeadline;
+    private long lastHeartbeat;
+
+    // Leader only: replication progress and last acknowledgement time for each replica, and the
+    // index of this term's first entry, before which reads may not yet reflect every commit
+    private final long[] nextIndex;
+    private final long[] matchIndex;
+    private final long[] lastAck;
+    private long termStartIndex;
+    private final Map<Long, CompletableFuture<int[]>> waiting = new HashMap<>();
+
+    // Results of recently applied requests, so a retried request gets its first result back.
+    // Every replica applies the same entries in the same order, so this is the same everywhere.
+    private final Map<String, CompletableFuture<int[]>> recentRequests = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<int[]>> eldest) {
+            return size() > MAX_RECENT_REQUESTS;
+        }
+    };
+
+    private final ScheduledExecutorService timer;
+    private final ExecutorService delayedPops;
+    private final List<Thread> replicators = new ArrayList<>();
+    private volatile boolean running = true;
+
+    // Commit latency and batching, reported every statsInterval while leader
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final AtomicLong appendedEntries = new AtomicLong();
+    private final AtomicLong appendCalls = new AtomicLong();
+
+    // Replica number id of the calculator servers at urls, which all run with the same list
+    public ReplicatedCalculator(int id, List<String> urls) throws RemoteException {
+        this.id = id;
+        this.urls = List.copyOf(urls);
+        this.peers = new AtomicReferenceArray<>(urls.size());
+        this.maxBatch = Integer.getInteger("calculator.replication.maxBatch", 1024);
+        this.maxLog = Integer.getInteger("calculator.replication.maxLog", 100_000);
+        this.nextIndex = new long[urls.size()];
+        this.matchIndex = new long[urls.size()];
+        this.lastAck = new long[urls.size()];
+
+        // Sessions are not evicted, an eviction driven by each replica's own clock would make the stacks diverge
+        stacks = new CalculatorImplementation(false);
+        UnicastRemoteObject.unexportObject(stacks, true); // Only ever called locally
+
+        timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("raft-timer"));
+        delayedPops = Executors.newFixedThreadPool(Integer.getInteger("calculator.callbackThreads", 4),
+                daemonThreads("delay-pop"));
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Start taking part in elections and replication, once this replica is bound in its registry
+    public void start() {
+        lock.lock();
+        try {
+            resetElectionDeadline();
+        } finally {
+            lock.unlock();
+        }
+        for (int peer = 0; peer < urls.size(); peer++) {
+            if (peer == id) {
+                continue;
+            }
+            int target = peer;
+            Thread replicator = new Thread(() -> replicateTo(target), "raft-replicator-" + peer);
+            replicator.setDaemon(true);
+            replicator.start();
+            replicators.add(replicator);
+        }
+        timer.scheduleWithFixedDelay(this::checkElectionTimeout, 10, 10, TimeUnit.MILLISECONDS);
+        long statsMillis = Long.getLong("calculator.replication.statsIntervalMs", 10_000);
+        timer.scheduleWithFixedDelay(this::reportStats, statsMillis, statsMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Stop responding as a replica, as if the process had died
+    public void shutdown() {
+        running = false;
+        timer.shutdownNow();
+        delayedPops.shutdownNow();
+        lock.lock();
+        try {
+            stepDown(currentTerm);
+        } finally {
+            lock.unlock();
+        }
+        for (Thread replicator : replicators) {
+            replicator.interrupt();
+        }
+    }
+
+    public boolean isLeader() {
+        lock.lock();
+        try {
+            return role == Role.LEADER;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Raft calls between replicas
+
+    @Override
+    public VoteReply requestVote(long term, int candidateId, long lastLogIndex, long lastLogTerm)
+            throws RemoteException {
+        lock.lock();
+        try {
+            // Ignore candidates while a leader is known to be alive, so a replica that was cut off
+            // cannot depose a working leader, and the leader's read lease stays safe
+            boolean leaderAlive = role == Role.LEADER ? hasLease()
+                    : leaderId != -1 && System.nanoTime() - lastHeartbeat < ELECTION_TIMEOUT_NANOS;
+            if (!running || leaderAlive) {
+                return new VoteReply(currentTerm, false);
+            }
+            if (term > currentTerm) {
+                stepDown(term);
+            }
+            boolean upToDate = lastLogTerm > lastTerm() || (lastLogTerm == lastTerm() && lastLogIndex >= lastIndex());
+            boolean granted = term == currentTerm && upToDate && (votedFor == -1 || votedFor == candidateId);
+            if (granted) {
+                votedFor = candidateId;
+                resetElectionDeadline();
+            }
+            return new VoteReply(currentTerm, granted);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public AppendReply appendEntries(long term, int leaderId, long prevLogIndex, long prevLogTerm,
+            List<LogEntry> entries, long leaderCommit) throws RemoteException {
+        lock.lock();
+        try {
+            if (!running || term < currentTerm) {
+                return new AppendReply(currentTerm, false, 0);
+            }
+            if (term > currentTerm || role != Role.FOLLOWER) {
+                stepDown(term);
+            }
+            this.leaderId = leaderId;
+            lastHeartbeat = System.nanoTime();
+            resetElectionDeadline();
+
+            if (prevLogIndex > lastIndex()) {
+                return new AppendReply(currentTerm, false, lastIndex()); // Missing entries, retry from our end
+            }
+            long index = prevLogIndex;
+            if (prevLogIndex < logStart) {
+                // Entries up to logStart were committed and applied here, so they match the leader's
+                int skip = (int) Math.min(entries.size(), logStart - prevLogIndex);
+                entries = entries.subList(skip, entries.size());
+                index += skip;
+            } else if (termAt(prevLogIndex) != prevLogTerm) {
+                return new AppendReply(currentTerm, false, prevLogIndex - 1);
+            }
+
+            for (LogEntry entry : entries) {
+                index++;
+                if (index <= lastIndex()) {
+                    if (termAt(index) == entry.getTerm()) {
+                        continue; // Already have it, e.g. from a retried append
+                    }
+                    // Uncommitted entries of an old leader
+                    log.subList((int) (index - logStart - 1), log.size()).clear();
+                }
+                log.add(entry);
+            }
+
+            if (leaderCommit > commitIndex) {
+                commitIndex = Math.min(leaderCommit, index);
+                applyCommitted();
+            }
+            return new AppendReply(currentTerm, true, index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int[] submit(String clientID, List<Op> program, String session, long sequence) throws RemoteException {
+        long start = System.nanoTime();
+        CompletableFuture<int[]> result;
+        lock.lock();
+        try {
+            if (!running || role != Role.LEADER) {
+                throw notLeader();
+            }
+            LogEntry entry = new LogEntry(currentTerm, clientID, List.copyOf(program), session, sequence);
+            CompletableFuture<int[]> previous = recentRequests.get(entry.getRequestKey());
+            if (previous != null) {
+                result = previous; // Already applied, e.g. just before the old leader failed
+            } else {
+                log.add(entry);
+                matchIndex[id] = lastIndex();
+                result = new CompletableFuture<>();
+                waiting.put(lastIndex(), result);
+                advanceCommitIndex(); // A single replica commits straight away
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            int[] results = result.get(COMMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            commitLatency.record(System.nanoTime() - start);
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause; // e.g. EmptyStackException, as from pop()
+            }
+            if (e.getCause() instanceof RemoteException cause) {
+                throw cause;
+            }
+            throw new RemoteException("Command failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted waiting for the command to commit");
+        } catch (TimeoutException e) {
+            throw new RemoteException("Timed out waiting for the command to commit");
+        }
+    }
+
+    // Calculator calls, each command being committed to the log before it is applied
+
+    @Override
+    public void pushValue(int val, String clientID) throws RemoteException {
+        submit(clientID, List.of(Op.pushValue(val)), null, 0);
+    }
+
+    @Override
+    public void pushOperation(String operator, String clientID) throws RemoteException {
+        submit(clientID, List.of(Op.pushOperation(operator)), null, 0);
+    }
+
+    @Override
+    public int pop(String clientID) throws RemoteException {
+        return submit(clientID, List.of(Op.pop()), null, 0)[0];
+    }
+
+    @Override
+    public boolean isEmpty(String clientID) throws RemoteException {
+        lock.lock();
+        try {
+            checkCanRead();
+            return stacks.isEmpty(clientID);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int delayPop(int millis, String clientID) throws RemoteException {
+        CompletableFuture<Integer> result = delayedPop(millis, clientID);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted waiting for delayed pop");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof RemoteException cause) {
+                throw cause;
+            }
+            throw new RemoteException("Delayed pop failed", e.getCause());
+        }
+    }
+
+    @Override
+    public void delayPop(int millis, String clientID, PopCallback callback) throws RemoteException {
+        delayedPop(millis, clientID).whenComplete((value, failure) -> {
+            try {
+                if (failure != null) {
+                    callback.failed(failure.toString());
+                } else {
+                    callback.popped(value);
+                }
+            } catch (RemoteException e) {
+                System.err.println("Failed to deliver delayed pop: " + e.getMessage());
+            }
+        });
+    }
+
+    // Commit a pop once millis milliseconds have passed. The timer thread only hands the pop over,
+    // as waiting for the commit there would hold up elections.
+    private CompletableFuture<Integer> delayedPop(int millis, String clientID) throws NotLeaderException {
+        lock.lock();
+        try {
+            if (role != Role.LEADER) {
+                throw notLeader();
+            }
+        } finally {
+            lock.unlock();
+        }
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        timer.schedule(() -> delayedPops.execute(() -> {
+            try {
+                result.complete(pop(clientID));
+            } catch (RuntimeException | RemoteException e) {
+                result.completeExceptionally(e);
+            }
+        }), millis, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    @Override
+    public void pushValues(int[] vals, String clientID) throws RemoteException {
+        List<Op> program = new ArrayList<>(vals.length);
+        for (int val : vals) {
+            program.add(Op.pushValue(val));
+        }
+        submit(clientID, program, null, 0);
+    }
+
+    @Override
+    public int[] execute(List<Op> program, String clientID) throws RemoteException {
+        return submit(clientID, program, null, 0);
+    }
+
+    @Override
+    public List<String> getClientIDs() throws RemoteException {
+        lock.lock();
+        try {
+            checkCanRead();
+            return stacks.getClientIDs();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Stacks are not moved out of a replicated group, each group is already highly available
+    @Override
+    public int[] exportStack(String clientID) throws RemoteException {
+        throw new RemoteException("Stacks cannot be moved out of a replicated calculator");
+    }
+
+    @Override
+    public void importStack(String clientID, int[] values) throws RemoteException {
+        throw new RemoteException("Stacks cannot be moved into a replicated calculator");
+    }
+
+    // Leader election
+
+    // Stand for election if no leader has been heard from within the election timeout
+    private void checkElectionTimeout() {
+        long term;
+        long lastIndex;
+        long lastLogTerm;
+        lock.lock();
+        try {
+            if (!running || role == Role.LEADER || System.nanoTime() < electionDeadline) {
+                return;
+            }
+            role = Role.CANDIDATE;
+            currentTerm++;
+            votedFor = id;
+            leaderId = -1;
+            resetElectionDeadline();
+            term = currentTerm;
+            lastIndex = lastIndex();
+            lastLogTerm = lastTerm();
+        } finally {
+            lock.unlock();
+        }
+
+        int votes = 1;
+        for (int peer = 0; peer < urls.size(); peer++) {
+            if (peer == id) {
+                continue;
+            }
+            try {
+                VoteReply reply = peer(peer).requestVote(term, id, lastIndex, lastLogTerm);
+                lock.lock();
+                try {
+                    if (reply.term() > currentTerm) {
+                        stepDown(reply.term());
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (reply.granted()) {
+                    votes++;
+                }
+            } catch (RemoteException | NotBoundException | MalformedURLException e) {
+                peers.set(peer, null); // Unreachable, look it up again next time
+            }
+        }
+
+        lock.lock();
+        try {
+            if (role == Role.CANDIDATE && currentTerm == term && votes > urls.size() / 2) {
+                becomeLeader();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void becomeLeader() {
+        role = Role.LEADER;
+        leaderId = id;
+        long now = System.nanoTime();
+        for (int peer = 0; peer < urls.size(); peer++) {
+            nextIndex[peer] = lastIndex() + 1;
+            matchIndex[peer] = 0;
+            lastAck[peer] = now - 2 * ELECTION_TIMEOUT_NANOS;
+        }
+        // Entries from earlier terms only commit once an entry of this term does
+        log.add(LogEntry.noOp(currentTerm));
+        termStartIndex = lastIndex();
+        matchIndex[id] = lastIndex();
+        advanceCommitIndex();
+        changed.signalAll();
+        System.out.println("Replica " + id + " is the leader for term " + currentTerm);
+    }
+
+    // Become a follower, failing any commands waiting on this replica as leader. Those may still commit
+    // under the next leader, clients resubmit them there with the same session and sequence.
+    private void stepDown(long term) {
+        if (term > currentTerm) {
+            currentTerm = term;
+            votedFor = -1;
+            leaderId = -1;
+        }
+        if (role == Role.LEADER) {
+            NotLeaderException failure = notLeader();
+            for (CompletableFuture<int[]> result : waiting.values()) {
+                result.completeExceptionally(failure);
+            }
+            waiting.clear();
+        }
+        role = Role.FOLLOWER;
+        changed.signalAll();
+    }
+
+    private void resetElectionDeadline() {
+        electionDeadline = System.nanoTime() + ELECTION_TIMEOUT_NANOS
+                + ThreadLocalRandom.current().nextLong(ELECTION_TIMEOUT_NANOS);
+    }
+
+    // Replication
+
+    // Leader only: send new entries to one replica as soon as there are any, in batches of up to maxBatch,
+    // and an empty append every heartbeat otherwise
+    private void replicateTo(int peer) {
+        long lastSent = 0;
+        boolean cutOff = false;
+        while (running) {
+            long term;
+            long prevIndex;
+            long prevTerm;
+            long leaderCommit;
+            List<LogEntry> entries;
+            lock.lock();
+            try {
+                while (running && (role != Role.LEADER
+                        || (nextIndex[peer] > lastIndex() && System.nanoTime() - lastSent < HEARTBEAT_NANOS))) {
+                    long wait = role != Role.LEADER ? HEARTBEAT_NANOS : HEARTBEAT_NANOS - (System.nanoTime() - lastSent);
+                    changed.awaitNanos(wait);
+                }
+                if (!running) {
+                    return;
+                }
+                // The entries this replica needs have been dropped, it can no longer catch up
+                if (nextIndex[peer] <= logStart) {
+                    if (!cutOff) {
+                        System.err.println("Replica " + peer + " is too far behind to catch up from replica " + id);
+                        cutOff = true;
+                    }
+                    changed.awaitNanos(HEARTBEAT_NANOS);
+                    continue;
+                }
+                term = currentTerm;
+                prevIndex = nextIndex[peer] - 1;
+                prevTerm = termAt(prevIndex);
+                leaderCommit = commitIndex;
+                entries = new ArrayList<>(log.subList((int) (prevIndex - logStart),
+                        (int) (Math.min(lastIndex(), prevIndex + maxBatch) - logStart)));
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            lastSent = System.nanoTime();
+            AppendReply reply;
+            try {
+                reply = peer(peer).appendEntries(term, id, prevIndex, prevTerm, entries, leaderCommit);
+            } catch (RemoteException | NotBoundException | MalformedURLException e) {
+                peers.set(peer, null);
+                try {
+                    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(HEARTBEAT_NANOS)); // Retry at the next heartbeat
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+
+            lock.lock();
+            try {
+                if (reply.term() > currentTerm) {
+                    stepDown(reply.term());
+                } else if (role == Role.LEADER && currentTerm == term) {
+                    if (reply.success()) {
+                        lastAck[peer] = lastSent;
+                        matchIndex[peer] = Math.max(matchIndex[peer], reply.matchIndex());
+                        nextIndex[peer] = matchIndex[peer] + 1;
+                        if (!entries.isEmpty()) {
+                            appendCalls.incrementAndGet();
+                            appendedEntries.addAndGet(entries.size());
+                        }
+                        advanceCommitIndex();
+                    } else {
+                        nextIndex[peer] = Math.max(1, Math.min(nextIndex[peer] - 1, reply.matchIndex() + 1));
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Leader only: commit up to the highest entry of this term stored on a majority of replicas
+    private void advanceCommitIndex() {
+        for (long index = lastIndex(); index > commitIndex; index--) {
+            if (termAt(index) != currentTerm) {
+                break;
+            }
+            int stored = 0;
+            for (long match : matchIndex) {
+                if (match >= index) {
+                    stored++;
+                }
+            }
+            if (stored > urls.size() / 2) {
+                commitIndex = index;
+                applyCommitted();
+                changed.signalAll(); // Followers learn the new commit index on the next append
+                return;
+            }
+        }
+    }
+
+    // Apply committed entries to the stacks in log order, completing any client waiting on them
+    private void applyCommitted() {
+        while (lastApplied < commitIndex) {
+            lastApplied++;
+            LogEntry entry = entryAt(lastApplied);
+            CompletableFuture<int[]> result = waiting.remove(lastApplied);
+            if (entry.isNoOp()) {
+                continue;
+            }
+
+            String key = entry.getRequestKey();
+            CompletableFuture<int[]> applied = key != null ? recentRequests.get(key) : null;
+            if (applied == null) {
+                applied = new CompletableFuture<>();
+                try {
+                    applied.complete(stacks.execute(entry.getProgram(), entry.getClientID()));
+                } catch (RuntimeException | RemoteException e) {
+                    applied.completeExceptionally(e);
+                }
+                if (key != null) {
+                    recentRequests.put(key, applied);
+                }
+            }
+            if (result != null) {
+                applied.whenComplete((results, failure) -> {
+                    if (failure != null) {
+                        result.completeExceptionally(failure);
+                    } else {
+                        result.complete(results);
+                    }
+                });
+            }
+        }
+        trimLog();
+    }
+
+    // Drop applied entries from the front of the log. A leader drops those every replica already stores,
+    // and every replica drops the oldest applied entries once more than maxLog are kept.
+    private void trimLog() {
+        long upTo = 0;
+        if (role == Role.LEADER) {
+            upTo = Long.MAX_VALUE;
+            for (long match : matchIndex) {
+                upTo = Math.min(upTo, match);
+            }
+        }
+        upTo = Math.min(lastApplied, Math.max(upTo, lastIndex() - maxLog));
+        if (upTo - logStart < TRIM_BATCH) {
+            return; // Drop entries in batches, each drop shifts the rest of the list
+        }
+        logStartTerm = termAt(upTo);
+        log.subList(0, (int) (upTo - logStart)).clear();
+        logStart = upTo;
+    }
+
+    // Reads are served by a leader holding a lease, once it has applied every earlier term's commits
+    private void checkCanRead() throws NotLeaderException {
+        if (!running || role != Role.LEADER || !hasLease() || commitIndex < termStartIndex) {
+            throw notLeader();
+        }
+    }
+
+    // No other leader can be elected while a majority has acknowledged this one within the election timeout
+    private boolean hasLease() {
+        long now = System.nanoTime();
+        int acknowledged = 1;
+        for (int peer = 0; peer < urls.size(); peer++) {
+            if (peer != id && now - lastAck[peer] < ELECTION_TIMEOUT_NANOS) {
+                acknowledged++;
+            }
+        }
+        return acknowledged > urls.size() / 2;
+    }
+
+    private NotLeaderException notLeader() {
+        return new NotLeaderException(leaderId >= 0 && leaderId != id ? urls.get(leaderId) : null);
+    }
+
+    private long termAt(long index) {
+        return index == logStart ? logStartTerm : entryAt(index).getTerm();
+    }
+
+    private LogEntry entryAt(long index) {
+        return log.get((int) (index - logStart - 1));
+    }
+
+    private long lastIndex() {
+        return logStart + log.size();
+    }
+
+    private long lastTerm() {
+        return termAt(lastIndex());
+    }
+
+    private RaftNode peer(int peer) throws RemoteException, NotBoundException, MalformedURLException {
+        RaftNode node = peers.get(peer);
+        if (node == null) {
+            node = (RaftNode) Naming.lookup(urls.get(peer));
+            peers.set(peer, node);
+        }
+        return node;
+    }
+
+    private void reportStats() {
+        LatencyHistogram latency = commitLatency.snapshot();
+        commitLatency.reset();
+        long calls = appendCalls.getAndSet(0);
+        long entries = appendedEntries.getAndSet(0);
+        if (!isLeader() || latency.getCount() == 0) {
+            return;
+        }
+        System.out.printf("Replica %d committed %,d commands, %.1f entries per append, commit latency %s%n", id,
+                latency.getCount(), calls > 0 ? (double) entries / calls : 0.0, latency.summary());
+    }
+}
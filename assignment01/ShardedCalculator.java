@@ -0,0 +1,190 @@
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Client-side Calculator that spreads client IDs over several calculator servers by consistent hashing.
+// Each server is placed at many points on a hash ring and a client ID belongs to the first server point
+// at or after its own hash, so adding or removing a server only moves the stacks next to its points.
+public class ShardedCalculator implements Calculator {
+    private static final int VIRTUAL_NODES = 128;
+
+    private final Map<String, Calculator> nodes = new ConcurrentHashMap<>();
+
+    // Replaced as a whole when servers join or leave, so calls route without locking
+    private volatile NavigableMap<Long, String> ring = new TreeMap<>();
+
+    // Connect to the calculator servers at the given RMI URLs
+    public ShardedCalculator(List<String> urls) throws MalformedURLException, NotBoundException, RemoteException {
+        NavigableMap<Long, String> initial = new TreeMap<>();
+        for (String url : urls) {
+            nodes.put(url, (Calculator) Naming.lookup(url));
+            addPoints(initial, url);
+        }
+        ring = initial;
+    }
+
+    // URL of the server that holds the client's stack
+    public String ownerOf(String clientID) {
+        NavigableMap<Long, String> current = ring;
+        if (current.isEmpty()) {
+            throw new IllegalStateException("No calculator servers available");
+        }
+        Map.Entry<Long, String> point = current.ceilingEntry(hash(clientID));
+        return (point != null ? point : current.firstEntry()).getValue();
+    }
+
+    public List<String> getNodes() {
+        return new ArrayList<>(nodes.keySet());
+    }
+
+    // Add a server to the ring and move over the stacks it now owns, returning how many non-empty
+    // stacks were moved
+    public synchronized int addNode(String url) throws MalformedURLException, NotBoundException, RemoteException {
+        Calculator added = (Calculator) Naming.lookup(url);
+        NavigableMap<Long, String> updated = new TreeMap<>(ring);
+        addPoints(updated, url);
+        nodes.put(url, added);
+        ring = updated;
+
+        int moved = 0;
+        for (Map.Entry<String, Calculator> node : nodes.entrySet()) {
+            if (node.getKey().equals(url)) {
+                continue;
+            }
+            for (String clientID : node.getValue().getClientIDs()) {
+                if (ownerOf(clientID).equals(url) && moveStack(clientID, node.getValue(), added)) {
+                    moved++;
+                }
+            }
+        }
+        return moved;
+    }
+
+    // Take a server off the ring and hand each of its stacks to the new owner, returning how many non-empty
+    // stacks were moved
+    public synchronized int removeNode(String url) throws RemoteException {
+        Calculator removed = nodes.get(url);
+        if (removed == null) {
+            return 0;
+        }
+        if (nodes.size() == 1) {
+            throw new IllegalStateException("Cannot remove the last calculator server");
+        }
+        NavigableMap<Long, String> updated = new TreeMap<>(ring);
+        updated.values().removeIf(url::equals);
+        ring = updated;
+
+        int moved = 0;
+        for (String clientID : removed.getClientIDs()) {
+            if (moveStack(clientID, removed, nodes.get(ownerOf(clientID)))) {
+                moved++;
+            }
+        }
+        nodes.remove(url);
+        return moved;
+    }
+
+    // Calls that reach the new owner before the stack do not lose anything, as the moved values go beneath them
+    private static boolean moveStack(String clientID, Calculator from, Calculator to) throws RemoteException {
+        int[] values = from.exportStack(clientID);
+        if (values.length == 0) {
+            return false;
+        }
+        to.importStack(clientID, values);
+        return true;
+    }
+
+    private Calculator route(String clientID) {
+        return nodes.get(ownerOf(clientID));
+    }
+
+    @Override
+    public void pushValue(int val, String clientID) throws RemoteException {
+        route(clientID).pushValue(val, clientID);
+    }
+
+    @Override
+    public void pushOperation(String operator, String clientID) throws RemoteException {
+        route(clientID).pushOperation(operator, clientID);
+    }
+
+    @Override
+    public int pop(String clientID) throws RemoteException {
+        return route(clientID).pop(clientID);
+    }
+
+    @Override
+    public boolean isEmpty(String clientID) throws RemoteException {
+        return route(clientID).isEmpty(clientID);
+    }
+
+    @Override
+    public int delayPop(int millis, String clientID) throws RemoteException {
+        return route(clientID).delayPop(millis, clientID);
+    }
+
+    @Override
+    public void delayPop(int millis, String clientID, PopCallback callback) throws RemoteException {
+        route(clientID).delayPop(millis, clientID, callback);
+    }
+
+    @Override
+    public void pushValues(int[] vals, String clientID) throws RemoteException {
+        route(clientID).pushValues(vals, clientID);
+    }
+
+    @Override
+    public int[] execute(List<Op> program, String clientID) throws RemoteException {
+        return route(clientID).execute(program, clientID);
+    }
+
+    // Client IDs held across every server
+    @Override
+    public List<String> getClientIDs() throws RemoteException {
+        List<String> clientIDs = new ArrayList<>();
+        for (Calculator node : nodes.values()) {
+            clientIDs.addAll(node.getClientIDs());
+        }
+        return clientIDs;
+    }
+
+    @Override
+    public int[] exportStack(String clientID) throws RemoteException {
+        return route(clientID).exportStack(clientID);
+    }
+
+    @Override
+    public void importStack(String clientID, int[] values) throws RemoteException {
+        route(clientID).importStack(clientID, values);
+    }
+
+    private static void addPoints(NavigableMap<Long, String> ring, String url) {
+        for (int i = 0; i < VIRTUAL_NODES; i++) {
+            ring.put(hash(url + "#" + i), url);
+        }
+    }
+
+    // First 8 bytes of the MD5 digest, which spreads similar IDs evenly around the ring
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
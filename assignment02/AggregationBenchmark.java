@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+// Standalone benchmarks for the AggregationServer write path, run without the HTTP layer.
+// Usage: java AggregationBenchmark commit [stations] [puts] [maxShards]
+//        java AggregationBenchmark codec [iterations]
+public class AggregationBenchmark {
+    private static final PrintStream out = System.out;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "commit";
+        if (mode.equals("codec")) {
+            benchmarkCodec(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+
+        int stations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int puts = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int maxShards = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        // The commit path logs every update, keep that out of the measurement
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            out.println("Commit throughput, " + stations + " stations, " + puts + " PUTs");
+            for (int shards = 1; shards <= maxShards; shards *= 2) {
+                benchmarkCommit(stations, puts, shards);
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    // Submit PUTs from several producer threads per shard and wait for every one to be durable
+    private static void benchmarkCommit(int stations, int puts, int shards) throws Exception {
+        Path dir = Files.createTempDirectory("aggregation-bench");
+        StationStore store = new StationStore();
+        LamportClock clock = new LamportClock();
+        try (WriteAheadLog wal = new WriteAheadLog(dir.resolve("weather.wal"))) {
+            GroupCommitter committer = new GroupCommitter(clock, store, wal, new EventRing(4096),
+                    dir.resolve("weather.json"), dir.resolve("temp.json"), shards, 512, 0, Integer.MAX_VALUE);
+            committer.start();
+
+            ExecutorService producers = Executors.newFixedThreadPool(shards * 16);
+            long start = System.nanoTime();
+            List<Future<?>> results = new ArrayList<>(puts);
+            for (int i = 0; i < puts; i++) {
+                String id = "IDS" + (i % stations);
+                results.add(producers.submit(() -> {
+                    committer.submit(0, observation(id)).awaitCommitted();
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            producers.shutdown();
+            committer.shutdown();
+            out.printf("  shards=%-3d %,12.0f PUTs/s%n", shards, puts / (elapsed / 1e9));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    // Compare the size and decode cost of a JSON observation against its binary encoding
+    private static void benchmarkCodec(int iterations) {
+        JsonObject entry = observation("IDS60901");
+        String json = entry.toString();
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        byte[] binary = WeatherCodec.encode(entry);
+
+        out.println("Bytes per observation: JSON " + jsonBytes.length + " | binary " + binary.length);
+
+        // Warm up both decoders before measuring
+        long sink = 0;
+        for (int i = 0; i < iterations / 10; i++) {
+            sink += JsonParser.parseString(json).getAsJsonObject().size();
+            sink += WeatherCodec.decode(binary).size();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += JsonParser.parseString(new String(jsonBytes, StandardCharsets.UTF_8)).getAsJsonObject().size();
+        }
+        long jsonNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += WeatherCodec.decode(binary).size();
+        }
+        long binaryNanos = System.nanoTime() - start;
+
+        out.printf("Decode ns/observation: JSON %.0f | binary %.0f (checksum %d)%n",
+                (double) jsonNanos / iterations, (double) binaryNanos / iterations, sink);
+    }
+
+    // A representative weather observation for the given station
+    static JsonObject observation(String id) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("id", id);
+        entry.addProperty("name", "Sydney (Observatory Hill)");
+        entry.addProperty("state", "NSW");
+        entry.addProperty("time_zone", "AEST");
+        entry.addProperty("lat", -33.9);
+        entry.addProperty("lon", 151.2);
+        entry.addProperty("local_date_time", "15/04:00pm");
+        entry.addProperty("local_date_time_full", "20230715160000");
+        entry.addProperty("air_temp", 13.3);
+        entry.addProperty("apparent_t", 9.5);
+        entry.addProperty("cloud", "Partly cloudy");
+        entry.addProperty("dewpt", 5.7);
+        entry.addProperty("press", 1023.9);
+        entry.addProperty("rel_hum", 60);
+        entry.addProperty("wind_dir", "S");
+        entry.addProperty("wind_spd_kmh", 15);
+        entry.addProperty("wind_spd_kt", 8);
+        return entry;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
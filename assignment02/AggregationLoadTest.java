@@ -0,0 +1,92 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Load generator for a running AggregationServer, holding a fixed number of requests in flight.
+// Run it against a server started in each thread mode to compare platform and virtual threads, e.g.
+//   java -Daggregation.threads=virtual AggregationServer
+//   java AggregationLoadTest http://localhost:4567 10000 100000 0.1
+// Usage: java AggregationLoadTest <url> [concurrency] [requests] [putRatio]
+public class AggregationLoadTest {
+    private static final int STATIONS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        String serverURL = args.length > 0 ? args[0] : "http://localhost:4567";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        double putRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+
+        // Requests are sent asynchronously, the semaphore bounds how many are in flight at once
+        Semaphore inFlight = new Semaphore(concurrency);
+        long[] latencies = new long[requests];
+        AtomicInteger failures = new AtomicInteger();
+        CompletableFuture<?>[] pending = new CompletableFuture<?>[requests];
+
+        // Every station read during the run is written first, so GETs measure lookups rather than 404s
+        CompletableFuture<?>[] seeds = new CompletableFuture<?>[STATIONS];
+        for (int i = 0; i < STATIONS; i++) {
+            inFlight.acquire();
+            seeds[i] = client.sendAsync(putRequest(serverURL, i), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> inFlight.release());
+        }
+        CompletableFuture.allOf(seeds).join();
+
+        System.out.println("Sending " + requests + " requests to " + serverURL + " with " + concurrency
+                + " in flight, " + (int) (putRatio * 100) + "% PUT");
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            int index = i;
+            HttpRequest request = i % 100 < putRatio * 100 ? putRequest(serverURL, i) : getRequest(serverURL, i);
+            long sent = System.nanoTime();
+            pending[i] = client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        latencies[index] = System.nanoTime() - sent;
+                        if (error != null || response.statusCode() >= 400) {
+                            failures.incrementAndGet();
+                        }
+                        inFlight.release();
+                    });
+        }
+        CompletableFuture.allOf(pending).exceptionally(e -> null).join();
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.printf("Throughput: %,.0f requests/s, %d failed%n", requests / (elapsed / 1e9), failures.get());
+        System.out.printf("Latency ms: p50 %.2f | p99 %.2f | p99.9 %.2f | max %.2f%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static HttpRequest getRequest(String serverURL, int i) {
+        return HttpRequest.newBuilder(URI.create(serverURL + "/?id=IDS" + (i % STATIONS)))
+                .header("Lamport-Timestamp", "0")
+                .GET()
+                .build();
+    }
+
+    private static HttpRequest putRequest(String serverURL, int i) {
+        String body = AggregationBenchmark.observation("IDS" + (i % STATIONS)).toString();
+        return HttpRequest.newBuilder(URI.create(serverURL + "/weather.json"))
+                .header("Lamport-Timestamp", "0")
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
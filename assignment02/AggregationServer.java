@@ -1,22 +1,30 @@
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+
 import static spark.Spark.get;
 import static spark.Spark.head;
 import static spark.Spark.notFound;
 import static spark.Spark.port;
 import static spark.Spark.put;
+import static spark.Spark.threadPool;
 
 public class AggregationServer {
     private static final int DEFAULT_PORT = 4567; // Default port for your server
@@ -25,12 +33,70 @@ public class AggregationServer {
     private static final Path WEATHER = Paths.get("src/main/resources/weather.json");
     private static final Path WEATHER2 = Paths.get("src/main/resources/weather2.json");
     private static final Path TEMP = Paths.get("src/main/resources/temp.json");
+    private static final Path WAL = Paths.get("src/main/resources/weather.wal");
+
+    // Restore the feed from weather.json and weather.wal on startup, otherwise start with an empty feed
+    private static final boolean RECOVER = Boolean.parseBoolean(System.getProperty("aggregation.recover", "true"));
+
+    // Number of logged PUTs after which the log is compacted into a weather.json snapshot
+    private static final int COMPACT_EVERY = Integer.getInteger("aggregation.wal.compactEvery", 1000);
+
+    // Number of recent updates kept for subscribers, and how long a subscription waits for one
+    private static final int EVENT_CAPACITY = Integer.getInteger("aggregation.events.capacity", 4096);
+    private static final long SUBSCRIBE_TIMEOUT_MS = Long.getLong("aggregation.subscribe.timeoutMs", 30_000);
+
+    // Request execution: "platform" uses Jetty's pool, optionally sized by aggregation.threads.max/min/idleMs,
+    // "virtual" runs each request on its own virtual thread
+    private static final String THREAD_MODE = System.getProperty("aggregation.threads", "platform");
+    private static final int MAX_THREADS = Integer.getInteger("aggregation.threads.max", -1);
+    private static final int MIN_THREADS = Integer.getInteger("aggregation.threads.min", -1);
+    private static final int THREAD_IDLE_TIMEOUT_MS = Integer.getInteger("aggregation.threads.idleMs", -1);
+
+    // Number of committer threads, updates for different stations are committed in parallel across them
+    private static final int SHARDS = Integer.getInteger("aggregation.shards",
+            Runtime.getRuntime().availableProcessors());
+
+    // Maximum number of PUTs persisted per fsync, and how long a batch may wait to fill up
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("aggregation.batch.maxSize", 512);
+    private static final long MAX_LINGER_MS = Long.getLong("aggregation.batch.lingerMs", 1);
+
+    // Stations are removed once the content server that last updated them has sent nothing for this long,
+    // 0 keeps them forever
+    private static final long EXPIRY_TTL_MS = Long.getLong("aggregation.expiry.ttlMs", 30_000);
+
+    // Compress feed responses for clients that send Accept-Encoding: gzip
+    private static final boolean GZIP = Boolean.parseBoolean(System.getProperty("aggregation.gzip", "true"));
+
+    // Number of observations of a bulk PUT held in memory and committed together
+    private static final int BULK_WINDOW = Integer.getInteger("aggregation.bulk.window", MAX_BATCH_SIZE);
+
+    // How far a received Lamport timestamp may be ahead of the clock before the request is rejected
+    private static final long MAX_CLOCK_SKEW = Long.getLong("aggregation.clock.maxSkew", 1_000_000_000L);
+
+    // A recovered clock past this can only come from a stamp accepted before received stamps were bounded, the
+    // feed is then renumbered so the clock has room to run
+    private static final long CLOCK_CEILING = Long.MAX_VALUE / 2;
 
     // Lamport lamportClock instance
     private static final LamportClock lamportClock = new LamportClock();
 
-    // Priority queue to store PUT requests based on Lamport clock timestamps
-    private static final PriorityBlockingQueue<LamportRequest> putQueue = new PriorityBlockingQueue<>();
+    // In-memory weather feed serving all GET requests, weather.json is only written for persistence
+    private static final StationStore store = new StationStore();
+
+    // Recently committed updates, streamed to subscribers
+    private static final EventRing events = new EventRing(EVENT_CAPACITY);
+
+    // Write-ahead log persisting accepted PUT requests
+    private static WriteAheadLog wal;
+
+    // Batches queued PUT requests into the store and the write-ahead log
+    private static GroupCommitter committer;
+
+    // Streams bulk PUTs into the committer
+    private static BulkIngest bulkIngest;
+
+    // Removes the stations of content servers that have gone quiet, null if expiry is disabled
+    private static StationExpiry expiry;
 
     public static void main(String[] args) {
         cleanup();
@@ -38,6 +104,35 @@ public class AggregationServer {
         // Register shutdown hook for cleanup
         registerShutdown();
 
+        // Open the write-ahead log before accepting any requests
+        openLog();
+
+        // Rebuild the feed from the last snapshot and log
+        if (RECOVER) {
+            recover();
+        }
+
+        // Offsets before the recovered clock may predate removals that were not persisted, those resume with a 410
+        store.forgetRemovalsUpTo(lamportClock.getTime());
+
+        // Start committing queued PUT requests
+        events.startAfter(lamportClock.getTime());
+        committer = new GroupCommitter(lamportClock, store, wal, events, WEATHER, TEMP, SHARDS, MAX_BATCH_SIZE,
+                MAX_LINGER_MS, COMPACT_EVERY);
+        committer.start();
+        bulkIngest = new BulkIngest(lamportClock, committer, AggregationServer::validateWeatherData, BULK_WINDOW);
+
+        // Start expiring quiet content servers, recovered stations expire unless a content server sends them again
+        if (EXPIRY_TTL_MS > 0) {
+            expiry = new StationExpiry(EXPIRY_TTL_MS, committer, bulkIngest::forget);
+            Map<String, Long> recovered = new HashMap<>();
+            for (StationRecord record : store.records()) {
+                recovered.put(record.getId(), record.getLamportTimestamp());
+            }
+            expiry.contact("recovered", recovered);
+            expiry.start();
+        }
+
         // Receive port
         int port = args.length < 1 ? DEFAULT_PORT : Integer.parseInt(args[0]);
         if (port < 0 || port > 65535) {
@@ -48,22 +143,72 @@ public class AggregationServer {
         // Start the server
         startServer(port);
 
+        // Endpoint for subscriptions, long-polls for updates committed after the given Lamport timestamp.
+        // Registered before "/*" so it is matched first.
+        get("/subscribe", (req, res) -> {
+            long since = events.getPublishedUpTo(); // Only future updates by default
+            String sinceStr = req.queryParams("since");
+            if (sinceStr != null) {
+                try {
+                    since = Long.parseLong(sinceStr);
+                } catch (NumberFormatException e) {
+                    res.status(400); // Bad Request
+                    return createErrorResponse("Invalid since parameter format.");
+                }
+            }
+
+            // An offset ahead of anything published was handed out before a restart, start over
+            if (since > events.getPublishedUpTo()) {
+                return resumeGone(res);
+            }
+
+            List<StationRecord> updates = events.awaitSince(since, SUBSCRIBE_TIMEOUT_MS);
+            res.type("application/json");
+            res.header("Lamport-Timestamp", String.valueOf(lamportClock.getTime()));
+
+            // The subscriber fell behind the buffer, resynchronise with the latest state of every changed station.
+            // Everything up to the published offset is already in the store, later updates may be sent again.
+            // If removals since have been forgotten, the subscriber has to start over from the full feed.
+            if (updates == null) {
+                if (!store.hasRemovalsSince(since)) {
+                    return resumeGone(res);
+                }
+                res.header("ETag", createETag(events.getPublishedUpTo()));
+                gzipIfAccepted(req, res);
+                return store.openJsonSince(since);
+            }
+
+            // Nothing was committed before the timeout, the subscriber polls again with the same offset
+            if (updates.isEmpty()) {
+                res.status(204); // No Content
+                return "";
+            }
+
+            // The ETag is the offset to resume from
+            res.header("ETag", createETag(updates.get(updates.size() - 1).getLamportTimestamp()));
+            return StationStore.joinJson(updates);
+        });
+
         // Endpoint for GET requests
         get("/*", (req, res) -> {
             // Retrieve the Lamport timestamp from the request headers
             String receivedTimestampStr = req.headers("Lamport-Timestamp");
+            long stamp;
             if (receivedTimestampStr != null) {
                 try {
-                    int receivedTimestamp = Integer.parseInt(receivedTimestampStr);
+                    long receivedTimestamp = Long.parseLong(receivedTimestampStr);
                     System.out.println(
                             """
                                     ------------------------------
                                     Received a GET request from: """ + req.ip() + " | Lamport Clock: "
                                     + receivedTimestamp);
+                    if (!isPlausibleTimestamp(receivedTimestamp)) {
+                        return rejectTimestamp(receivedTimestamp, res);
+                    }
 
-                    // Update the Lamport clock based on the received timestamp
-                    lamportClock.update(receivedTimestamp);
-                    System.out.println("Current Lamport Clock after update: " + lamportClock.getTime());
+                    // Advance the Lamport clock past the received timestamp, stamping this request
+                    stamp = lamportClock.tick(receivedTimestamp);
+                    System.out.println("Lamport timestamp assigned: " + stamp);
                 } catch (NumberFormatException e) {
                     System.err.println("Invalid Lamport timestamp format in headers: " + e.getMessage());
                     res.status(400); // Bad Request
@@ -75,64 +220,169 @@ public class AggregationServer {
                 return createErrorResponse("Lamport timestamp not found in the request headers.");
             }
 
-            // Increment Lamport clock for the outgoing response
-            lamportClock.increment();
-            System.out.println("Current Lamport Clock after increment: " + lamportClock.getTime());
-
             // Wait for all preceding PUT requests to be processed
-            processPutQueue();
+            committer.awaitCommitted();
 
             String id = req.queryParams("id");
-            JsonArray data = readData(WEATHER);
+            String ifNoneMatch = req.headers("If-None-Match");
 
             // If the client requested data for a specific ID
             if (id != null) {
                 System.out.println("ID parameter provided: " + id);
-                JsonArray result = getDataById(data, id);
-                if (result != null) {
+                StationRecord record = store.get(id);
+                if (record != null) {
+                    String etag = createETag(record.getLamportTimestamp());
                     res.type("application/json");
-                    res.header("Lamport-Timestamp", String.valueOf(lamportClock.getTime()));
-                    return result.toString(); // Return specific data for the requested ID
+                    res.header("ETag", etag);
+                    res.header("Lamport-Timestamp", String.valueOf(stamp));
+                    if (etagMatches(ifNoneMatch, etag)) {
+                        res.status(304); // Not Modified
+                        return "";
+                    }
+                    return record.getJsonArray(); // Return specific data for the requested ID
                 } else {
                     res.status(404); // Not Found
                     return createErrorResponse("Weather data for ID " + id + " not found.");
                 }
             }
 
+            // Several stations in one request, e.g. ?ids=IDS60901,IDS60902, skipping any not found
+            String ids = req.queryParams("ids");
+            if (ids != null) {
+                List<StationRecord> records = new ArrayList<>();
+                for (String stationID : ids.split(",")) {
+                    StationRecord record = store.get(stationID.trim());
+                    if (record != null) {
+                        records.add(record);
+                    }
+                }
+                res.type("application/json");
+                res.header("Lamport-Timestamp", String.valueOf(stamp));
+                return StationStore.joinJson(records);
+            }
+
+            // Only stations updated after this Lamport timestamp are returned, if provided
+            long since = -1;
+            String sinceStr = req.queryParams("since");
+            if (sinceStr != null) {
+                try {
+                    since = Long.parseLong(sinceStr);
+                } catch (NumberFormatException e) {
+                    res.status(400); // Bad Request
+                    return createErrorResponse("Invalid since parameter format.");
+                }
+            }
+
             // Return the updated feed after all preceding PUTs are applied
+            long version = store.getVersion();
+            String etag = createETag(version);
             res.type("application/json");
-            res.header("Lamport-Timestamp", String.valueOf(lamportClock.getTime())); // Ensure this line is executed in
-                                                                                     // a non-null context
+            res.header("ETag", etag);
+            res.header("Lamport-Timestamp", String.valueOf(stamp));
 
             // Debug output for Lamport timestamp
-            System.out.println("Lamport timestamp sent in headers: " + lamportClock.getTime());
-            return data;
+            System.out.println("Lamport timestamp sent in headers: " + stamp);
+
+            // A since ahead of the feed comes from a copy this server no longer has, e.g. one taken before a
+            // restart that lost history, so the client gets the full feed rather than a delta
+            if (since > version) {
+                sinceStr = null;
+            }
+
+            // Nothing changed since the client's copy
+            if (etagMatches(ifNoneMatch, etag) || (sinceStr != null && version == since)) {
+                res.status(304); // Not Modified
+                return "";
+            }
+
+            // Streamed from the per-station bytes with chunked transfer encoding, gzipped on the fly if accepted
+            if (sinceStr != null && !store.hasRemovalsSince(since)) {
+                return resumeGone(res);
+            }
+            gzipIfAccepted(req, res);
+            if (sinceStr != null) {
+                return store.openJsonSince(since);
+            }
+            return store.openFeedJson();
+        });
+
+        // Endpoint for bulk PUT requests, a JSON array of observations or one JSON observation per line (NDJSON).
+        // The Lamport-Timestamp header is the sender's stamp for the first observation and each following one is
+        // stamped one later, so a resent upload carries the same stamps and observations already accepted are
+        // skipped. The response gives the status of the first 10,000 observations. An upload that stops early on a
+        // syntax error keeps the observations committed before it. Registered before "/*" so it is matched first.
+        put("/bulk", (req, res) -> {
+            String receivedTimestampStr = req.headers("Lamport-Timestamp");
+            long receivedTimestamp;
+            if (receivedTimestampStr != null) {
+                try {
+                    receivedTimestamp = Long.parseLong(receivedTimestampStr);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid Lamport timestamp format in headers: " + e.getMessage());
+                    res.status(400); // Bad Request
+                    return createErrorResponse("Invalid Lamport timestamp format.");
+                }
+            } else {
+                System.err.println("No Lamport timestamp provided in the request headers.");
+                res.status(400); // Bad Request
+                return createErrorResponse("Lamport timestamp not found in the request headers.");
+            }
+            if (!isPlausibleTimestamp(receivedTimestamp)) {
+                return rejectTimestamp(receivedTimestamp, res);
+            }
+            System.out.println("------------------------------\nReceived a bulk PUT from: " + req.ip()
+                    + " | Lamport Clock: " + receivedTimestamp);
+
+            boolean dataExists = !store.isEmpty();
+            String serverID = contentServerID(req);
+            recordContact(serverID, Map.of());
+            BulkIngest.Result result = bulkIngest.ingest(unbufferedBody(req), receivedTimestamp, serverID,
+                    updates -> recordContact(serverID, updates));
+            System.out.println("Bulk PUT applied " + result.applied() + " observations, skipped "
+                    + result.duplicates() + " already applied and " + result.stale() + " stale, rejected "
+                    + result.rejected());
+
+            res.header("Lamport-Timestamp", String.valueOf(result.lamportTimestamp()));
+            if (result.records() == 0 && result.failure() == null) {
+                res.status(204); // No Content
+                return createErrorResponse("Empty request body.");
+            }
+            res.type("application/json");
+            if (result.persistFailed()) {
+                res.status(500); // Internal Server Error
+            } else if (result.failure() != null) {
+                res.status(400); // Bad Request
+            } else if (result.applied() == 0 && result.stale() > 0) {
+                res.status(409); // Conflict, the sender's clock is behind its earlier uploads
+            } else {
+                res.status(dataExists || result.applied() == 0 ? 200 : 201);
+            }
+            return result.toJson() + "\n";
         });
 
         // Endpoint for PUT requests
         put("/*", (req, res) -> {
-            String body = req.body(); // Retrieve the request body
+            byte[] body = req.bodyAsBytes(); // Retrieve the request body
 
-            boolean dataExists = fileExists(WEATHER);
+            boolean dataExists = !store.isEmpty();
 
             // Check if the request body is empty
-            if (body.isEmpty()) {
+            if (body == null || body.length == 0) {
                 res.status(204); // No Content
                 return createErrorResponse("Empty request body.");
             }
 
             // Retrieve the Lamport timestamp from the request headers
             String receivedTimestampStr = req.headers("Lamport-Timestamp");
+            long receivedTimestamp;
             if (receivedTimestampStr != null) {
                 try {
-                    int receivedTimestamp = Integer.parseInt(receivedTimestampStr);
+                    receivedTimestamp = Long.parseLong(receivedTimestampStr);
                     System.out.println(
                             """
                                     ------------------------------
                                     Received a PUT request from: """ + req.ip()
                                     + " | Lamport Clock: " + receivedTimestamp);
-                    lamportClock.update(receivedTimestamp); // Update the Lamport clock based on the received timestamp
-                    System.out.println("Current Lamport Clock after update: " + lamportClock.getTime());
                 } catch (NumberFormatException e) {
                     System.err.println("Invalid Lamport timestamp format in headers: " + e.getMessage());
                     res.status(400); // Bad Request
@@ -143,15 +393,29 @@ public class AggregationServer {
                 res.status(400); // Bad Request
                 return createErrorResponse("Lamport timestamp not found in the request headers.");
             }
+            if (!isPlausibleTimestamp(receivedTimestamp)) {
+                return rejectTimestamp(receivedTimestamp, res);
+            }
 
-            // Parse the incoming JSON content
+            // Decode the incoming content, binary observations skip JSON parsing entirely
             JsonObject newEntry;
-            try {
-                newEntry = JsonParser.parseString(body).getAsJsonObject();
-            } catch (JsonSyntaxException e) {
-                System.err.println("Failed to parse JSON: " + e.getMessage());
-                res.status(400); // Bad Request
-                return createErrorResponse("Invalid JSON format.");
+            if (WeatherCodec.CONTENT_TYPE.equals(req.contentType())) {
+                try {
+                    newEntry = WeatherCodec.decode(body);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Failed to decode binary observation: " + e.getMessage());
+                    res.status(400); // Bad Request
+                    return createErrorResponse("Invalid binary observation format.");
+                }
+            } else {
+                try {
+                    // Well-formed JSON that is not an object (e.g. an array) is as unusable as malformed JSON
+                    newEntry = JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject();
+                } catch (JsonSyntaxException | IllegalStateException e) {
+                    System.err.println("Failed to parse JSON: " + e.getMessage());
+                    res.status(400); // Bad Request
+                    return createErrorResponse("Invalid JSON format.");
+                }
             }
 
             // Validate the incoming weather data
@@ -159,23 +423,25 @@ public class AggregationServer {
                 return null; // Exit if validation fails
             }
 
-            // Add the Lamport timestamp to the JSON object
-            newEntry.addProperty("lamport_timestamp", lamportClock.getTime());
-
-            // Add the PUT request to the queue based on the timestamp
-            putQueue.add(new LamportRequest(lamportClock.getTime(), newEntry));
+            // Queue the PUT request, stamped past the received timestamp. The stamp is stored with the update
+            // and returned in the response header
+            LamportRequest request = committer.submit(receivedTimestamp, newEntry);
+            long stamp = request.getLamportTimestamp();
             // Debug output for Lamport timestamp
-            System.out.println("Lamport timestamp added to the queue: " + lamportClock.getTime());
+            System.out.println("Lamport timestamp added to the queue: " + stamp);
 
-            // Process the PUT queue
-            processPutQueue();
+            // Wait until the batch containing this PUT is durable
+            try {
+                request.awaitCommitted();
+            } catch (IOException e) {
+                res.status(500); // Internal Server Error
+                return createErrorResponse("Failed to persist weather data.");
+            }
 
-            // Increment Lamport clock for outgoing response
-            lamportClock.increment();
-            System.out.println("Current Lamport Clock after increment: " + lamportClock.getTime());
+            recordContact(contentServerID(req), Map.of(newEntry.get("id").getAsString(), stamp));
 
             // Add Lamport timestamp to response header
-            res.header("Lamport-Timestamp", String.valueOf(lamportClock.getTime()));
+            res.header("Lamport-Timestamp", String.valueOf(stamp));
 
             // Return appropriate status
             if (!dataExists) {
@@ -199,133 +465,207 @@ public class AggregationServer {
         });
     }
 
-    private static JsonArray getDataById(JsonArray data, String id) {
-        for (JsonElement element : data) {
-            JsonObject obj = element.getAsJsonObject();
-            if (obj.get("id").getAsString().equals(id)) {
-                String temp = "[ " + obj.toString() + " ]";
-                return JsonParser.parseString(temp).getAsJsonArray(); // Return the matching object
+    // Whether a received Lamport timestamp may move the clock. A stamp far ahead of the clock can only come from a
+    // faulty or malicious client, and accepting one near Long.MAX_VALUE would leave no timestamps for anyone else.
+    private static boolean isPlausibleTimestamp(long receivedTimestamp) {
+        return receivedTimestamp >= 0 && receivedTimestamp - lamportClock.getTime() <= MAX_CLOCK_SKEW;
+    }
+
+    private static String rejectTimestamp(long receivedTimestamp, spark.Response res) {
+        System.err.println("Rejected Lamport timestamp " + receivedTimestamp + ", more than " + MAX_CLOCK_SKEW
+                + " ahead of the clock at " + lamportClock.getTime());
+        res.status(400); // Bad Request
+        return createErrorResponse("Lamport timestamp out of range.");
+    }
+
+    // The client's offset cannot be resumed from, because a delta from before the oldest tombstone kept could miss
+    // removed stations or the offset predates a restart, so it fetches the full feed
+    private static String resumeGone(spark.Response res) {
+        res.status(410); // Gone
+        return createErrorResponse("Updates since this timestamp are not available, fetch the full feed.");
+    }
+
+    // The body straight from the connection. Spark's wrapper copies any body sent with a Content-Length into
+    // memory on first read, so it is bypassed to keep large uploads streaming.
+    private static InputStream unbufferedBody(spark.Request req) throws IOException {
+        HttpServletRequest raw = req.raw();
+        if (raw instanceof HttpServletRequestWrapper wrapper) {
+            return wrapper.getRequest().getInputStream();
+        }
+        return raw.getInputStream();
+    }
+
+    // Content servers name themselves in a Content-Server-ID header, otherwise they are told apart by address
+    private static String contentServerID(spark.Request req) {
+        String id = req.headers("Content-Server-ID");
+        return id != null && !id.isBlank() ? id : req.ip();
+    }
+
+    // Keep the content server's stations in the feed for another EXPIRY_TTL_MS
+    private static void recordContact(String serverID, Map<String, Long> updates) {
+        if (expiry != null) {
+            expiry.contact(serverID, updates);
+        }
+    }
+
+    // Have Spark gzip the response as it is written, only when the client accepts it
+    private static void gzipIfAccepted(spark.Request req, spark.Response res) {
+        if (!GZIP) {
+            return;
+        }
+        res.header("Vary", "Accept-Encoding");
+        String acceptEncoding = req.headers("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            res.header("Content-Encoding", "gzip");
+        }
+    }
+
+    // Entity tag for a feed or station version, derived from the Lamport timestamp of its last update
+    private static String createETag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    // Check whether an If-None-Match header lists the given entity tag
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
             }
         }
-        return null; // Return null if no match found
+        return false;
     }
 
     // Method to start the server
     private static void startServer(int port) {
+        configureThreads();
         port(port);
         System.out.println("Server started on port: " + port);
     }
 
-    // Cleanup function to clear temp.json
-    private synchronized static void cleanup() {
-        try {
-            if (Files.exists(TEMP)) {
-                Files.delete(TEMP);
-                System.out.println("temp.json deleted");
+    // Choose how request handlers are executed, must run before the first route is mapped
+    private static void configureThreads() {
+        if (THREAD_MODE.equals("virtual")) {
+            VirtualThreadPool pool = VirtualThreadPool.create();
+            if (pool != null) {
+                EmbeddedServers.add(EmbeddedServers.defaultIdentifier(),
+                        new EmbeddedJettyFactory().withThreadPool(pool));
+                System.out.println("Request handlers running on virtual threads");
+                return;
             }
+            System.err.println("Virtual threads require JDK 21 or later, using platform threads.");
+        }
+        if (MAX_THREADS > 0) {
+            threadPool(MAX_THREADS, MIN_THREADS, THREAD_IDLE_TIMEOUT_MS);
+        }
+        System.out.println("Request handlers running on platform threads");
+    }
+
+    // Open the write-ahead log, exiting if it cannot be created
+    private static void openLog() {
+        try {
+            wal = new WriteAheadLog(WAL);
         } catch (IOException e) {
-            System.err.println("Failed to delete temp.json: " + e.getMessage());
+            System.err.println("Failed to open weather.wal: " + e.getMessage());
+            System.exit(1);
         }
     }
 
-    // Graceful shutdown hook
-    private synchronized static void registerShutdown() {
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            try {
-                if (Files.exists(WEATHER)) {
-                    Files.delete(WEATHER);
-                    System.out.println("weather.json deleted");
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to delete weather.json: " + e.getMessage());
+    // Restore the feed and Lamport clock from the weather.json snapshot and the weather.wal tail
+    private static void recover() {
+        long start = System.nanoTime();
+        try {
+            long snapshotBytes = Files.exists(WEATHER) ? Files.size(WEATHER) : 0;
+            long logBytes = Files.size(WAL);
+
+            long snapshotHighWater = store.loadSnapshot(WEATHER);
+            int snapshotStations = store.size();
+            long highWater = Math.max(snapshotHighWater, wal.replay(store));
+            if (highWater > CLOCK_CEILING) {
+                long renumbered = store.renumber();
+                wal.compact(store, WEATHER, TEMP, renumbered);
+                System.err.println("Recovered Lamport timestamps reached " + highWater + ", renumbered the feed up to "
+                        + renumbered);
+                highWater = renumbered;
             }
 
-            try {
-                if (Files.exists(WEATHER2)) {
-                    Files.delete(WEATHER2);
-                    System.out.println("weather2.json deleted");
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to delete weather2.json: " + e.getMessage());
+            // Resume the clock past every recovered timestamp so ordering stays monotonic
+            if (highWater > 0) {
+                lamportClock.tick(highWater);
             }
 
-            try {
-                if (Files.exists(TEMP)) {
-                    Files.delete(TEMP);
-                    System.out.println("temp.json deleted");
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to delete temp.json: " + e.getMessage());
-            }
-        }));
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Recovered " + store.size() + " stations (" + snapshotStations
+                    + " from weather.json, " + snapshotBytes + " bytes; " + wal.getRecordsSinceSnapshot()
+                    + " records replayed from weather.wal, " + logBytes + " bytes) in " + elapsedMs
+                    + " ms | Lamport Clock: " + lamportClock.getTime());
+        } catch (IOException | JsonSyntaxException | IllegalStateException e) {
+            // Refuse to start rather than overwrite the persisted feed with an empty one
+            System.err.println("Failed to recover weather data: " + e.getMessage());
+            System.exit(1);
+        }
     }
 
-    // Read existing data from the weather file
-    private synchronized static JsonArray readData(Path path) {
-        JsonArray data = new JsonArray();
-        try {
-            String content = new String(Files.readAllBytes(path));
-            JsonElement element = JsonParser.parseString(content);
-            if (element.isJsonArray()) {
-                data = element.getAsJsonArray();
-            }
-        } catch (IOException | JsonSyntaxException e) {
-            System.err.println("Failed to read or parse weather data: " + e.getMessage());
+    // Cleanup function to clear temp.json left by an interrupted compaction,
+    // and the persisted feed when not recovering
+    private static void cleanup() {
+        deleteFile(TEMP);
+        if (!RECOVER) {
+            deleteFile(WEATHER);
+            deleteFile(WAL);
         }
-        return data;
     }
 
-    // Check if a file exists
-    private static boolean fileExists(Path path) {
-        return Files.exists(path);
+    // Delete a file if it exists
+    private static void deleteFile(Path path) {
+        try {
+            if (Files.deleteIfExists(path)) {
+                System.out.println(path.getFileName() + " deleted");
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + path.getFileName() + ": " + e.getMessage());
+        }
     }
 
-    // Update existing data
-    private static JsonArray updateData(JsonArray existing, JsonObject newEntry, String id) {
-        if (existing.size() > 0) {
-            for (JsonElement element : existing) {
-                JsonObject object = element.getAsJsonObject();
-                if (object.get("id").getAsString().equals(id)) {
-                    object.add("air_temp", newEntry.get("air_temp"));
-                    object.add("apparent_t", newEntry.get("apparent_t"));
-                    object.add("cloud", newEntry.get("cloud"));
-                    object.add("dewpt", newEntry.get("dewpt"));
-                    object.add("press", newEntry.get("press"));
-                    object.add("rel_hum", newEntry.get("rel_hum"));
-                    object.add("wind_dir", newEntry.get("wind_dir"));
-                    object.add("wind_spd_kmh", newEntry.get("wind_spd_kmh"));
-                    object.add("wind_spd_kt", newEntry.get("wind_spd_kt"));
-                    object.add("local_date_time", newEntry.get("local_date_time"));
-                    object.add("local_date_time_full", newEntry.get("local_date_time_full"));
-                    System.out.println("Data updated for ID: " + id);
-                    return existing;
-                }
+    // Fold the log into weather.json so the next startup only has to load the snapshot
+    private static void compactLog() {
+        if (wal == null) {
+            return;
+        }
+        try {
+            if (committer != null) {
+                committer.shutdown();
+            }
+            if (wal.getRecordsSinceSnapshot() > 0) {
+                wal.compact(store, WEATHER, TEMP, lamportClock.getTime());
+                System.out.println("weather.wal compacted into weather.json");
             }
+            wal.close();
+        } catch (IOException e) {
+            System.err.println("Failed to compact weather.wal: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        // Add new entry if ID not found
-        existing.add(newEntry);
-        System.out.println("New entry added to weather.json.");
-        return existing;
     }
 
-    // Process the PUT queue
-    private synchronized static void processPutQueue() {
-        while (!putQueue.isEmpty()) {
-            LamportRequest request = putQueue.poll(); // Get and remove the head of the queue
-            if (request != null) {
-                // Update the weather.json file with the request data
-                JsonArray existingData = readData(WEATHER);
-                JsonArray updatedData = updateData(existingData, request.getContent(),
-                        request.getContent().get("id").getAsString());
-
-                // Write the updated data back to weather.json
-                try (BufferedWriter writer = new BufferedWriter(new FileWriter(WEATHER.toFile()))) {
-                    writer.write(updatedData.toString());
-                } catch (IOException e) {
-                    System.err.println("Failed to write to weather.json: " + e.getMessage());
-                }
+    // Graceful shutdown hook
+    private static void registerShutdown() {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (RECOVER) {
+                compactLog();
+            } else {
+                deleteFile(WEATHER);
+                deleteFile(WAL);
             }
-        }
+            deleteFile(WEATHER2);
+            deleteFile(TEMP);
+        }));
     }
 
     // Create a standardized JSON error response
@@ -335,27 +675,32 @@ public class AggregationServer {
 
     // Validate the incoming weather data
     private static boolean isValidWeatherData(JsonObject newEntry, spark.Response res) {
-        // Check if the entry is a valid JSON object
-        if (!newEntry.isJsonObject()) {
+        String error = validateWeatherData(newEntry);
+        if (error != null) {
             res.status(400); // Bad Request
-            System.err.println("Invalid JSON format: Not a JSON object.");
+            System.err.println(error);
             return false;
         }
+        return true;
+    }
 
+    // Reason the weather data cannot be applied, or null if it is valid
+    private static String validateWeatherData(JsonObject newEntry) {
         // Check for required 'id' field
         if (!newEntry.has("id")) {
-            res.status(400); // Bad Request
-            System.err.println("Missing required field 'id' in weather data.");
-            return false;
+            return "Missing required field 'id' in weather data.";
         }
 
         // Ensure 'id' is a string
         if (!newEntry.get("id").isJsonPrimitive() || !newEntry.get("id").getAsJsonPrimitive().isString()) {
-            res.status(400);
-            System.err.println("Field 'id' must be a string.");
-            return false;
+            return "Field 'id' must be a string.";
         }
 
-        return true;
+        // 'expired' marks the removal of a station, which only the server itself issues
+        if (newEntry.has("expired")) {
+            return "Field 'expired' is reserved.";
+        }
+
+        return null;
     }
 }
@@ -0,0 +1,263 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+// Streaming ingest for bulk PUTs: observations are read one at a time from a JSON array or from one JSON object
+// after another (NDJSON), validated, and committed a window at a time, so only one window of observations is held
+// in memory however large the upload. The sender's Lamport stamp for record i is its header stamp plus i, and the
+// stamp of the last observation accepted from each content server for each station is remembered, so a resent
+// upload skips the observations already applied. An upload is not atomic: if it stops early on a syntax error or a
+// failed fsync, the windows committed before that stay applied, and the response says how far it got.
+public class BulkIngest {
+    // Status of each record, in the order the records were sent
+    public static final char APPLIED = 'A';
+    public static final char DUPLICATE = 'D';
+    public static final char STALE = 'S'; // Older than an observation already accepted from the same sender
+    public static final char REJECTED = 'R';
+    public static final char FAILED = 'F'; // Could not be persisted, safe to resend
+
+    // Reasons are only reported for this many rejected records, and statuses for this many records
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final int MAX_REPORTED_STATUS = 10_000;
+
+    private final LamportClock lamportClock;
+    private final GroupCommitter committer;
+    private final Function<JsonObject, String> validator;
+    private final int windowSize;
+
+    // Sender's Lamport stamp of the last bulk observation accepted for each station, by content server. Stamps
+    // from different content servers come from different clocks, so they are only compared per server.
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Long>> originStamps =
+            new ConcurrentHashMap<>();
+
+    // The outcome of one upload. records is how many records were read, status holds one character for each of
+    // the first MAX_REPORTED_STATUS of them, errors the reasons for the first rejected records, and failure why
+    // the upload stopped early, if it did.
+    public record Result(int records, String status, int applied, int duplicates, int stale, int rejected,
+            JsonArray errors, long lamportTimestamp, String failure, boolean persistFailed) {
+
+        public JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            if (failure != null) {
+                json.addProperty("Error", failure);
+                json.addProperty("Partial", "The " + records + " records read before the error stay as counted "
+                        + "below, the rest of the upload was not read.");
+            } else if (applied == 0 && stale > 0) {
+                json.addProperty("Error", "Observations are older than ones already sent by this content server.");
+            } else {
+                json.addProperty("Success", "Weather data updated!");
+            }
+            json.addProperty("applied", applied);
+            json.addProperty("duplicates", duplicates);
+            json.addProperty("stale", stale);
+            json.addProperty("rejected", rejected);
+            json.addProperty("records", records);
+            json.addProperty("status", status);
+            json.add("errors", errors);
+            return json;
+        }
+    }
+
+    // validator returns why an observation is invalid, or null if it may be applied
+    public BulkIngest(LamportClock lamportClock, GroupCommitter committer, Function<JsonObject, String> validator,
+            int windowSize) {
+        this.lamportClock = lamportClock;
+        this.committer = committer;
+        this.validator = validator;
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    // Read and commit every observation in the body, stopping at the first syntax error or failed fsync. Windows
+    // committed before either stay applied. onApplied is given the station ids and timestamps of each window once
+    // it is durable.
+    public Result ingest(InputStream body, long receivedTimestamp, String serverID,
+            Consumer<Map<String, Long>> onApplied) throws InterruptedException {
+        Upload upload = new Upload(receivedTimestamp, originStamps.computeIfAbsent(serverID,
+                id -> new ConcurrentHashMap<>()), onApplied);
+        try (JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            reader.setStrictness(Strictness.LENIENT); // Allows several top-level values, as in NDJSON
+            JsonToken first;
+            try {
+                first = reader.peek();
+            } catch (EOFException e) {
+                return upload.result(); // Empty body
+            }
+            boolean array = first == JsonToken.BEGIN_ARRAY;
+            if (array) {
+                reader.beginArray();
+            }
+            while (upload.failure == null && (array ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT)) {
+                upload.add(JsonParser.parseReader(reader));
+            }
+            if (upload.failure == null && array) {
+                reader.endArray();
+            }
+        } catch (IOException | JsonParseException e) {
+            upload.failure = "Invalid JSON after record " + upload.records + ": " + e.getMessage();
+        }
+        // Records read before a syntax error are still committed, a resent upload skips them
+        if (!upload.persistFailed) {
+            upload.commit();
+        }
+        return upload.result();
+    }
+
+    // Forget the stamps of a content server that has gone quiet, its next upload is applied in full
+    public void forget(String serverID) {
+        originStamps.remove(serverID);
+    }
+
+    // Record the sender's stamp of an observation. Returns APPLIED if it is the sender's latest for the station,
+    // DUPLICATE if that very observation was already accepted, or STALE if a later one was.
+    private static char acceptOrigin(ConcurrentHashMap<String, Long> origins, String id, long origin) {
+        char[] outcome = {APPLIED};
+        origins.compute(id, (key, previous) -> {
+            if (previous != null && previous >= origin) {
+                outcome[0] = previous == origin ? DUPLICATE : STALE;
+                return previous;
+            }
+            return origin;
+        });
+        return outcome[0];
+    }
+
+    // State of a single upload as it is read
+    private class Upload {
+        private final long receivedTimestamp;
+        private final ConcurrentHashMap<String, Long> origins;
+        private final Consumer<Map<String, Long>> onApplied;
+        private final StringBuilder status = new StringBuilder();
+        private int records;
+        private final JsonArray errors = new JsonArray();
+        private final List<JsonObject> window = new ArrayList<>();
+        private final List<Integer> windowRecords = new ArrayList<>();
+        private int applied;
+        private int duplicates;
+        private int stale;
+        private int rejected;
+        private long lastStamp = -1;
+        private String failure;
+        private boolean persistFailed;
+
+        Upload(long receivedTimestamp, ConcurrentHashMap<String, Long> origins,
+                Consumer<Map<String, Long>> onApplied) {
+            this.receivedTimestamp = receivedTimestamp;
+            this.origins = origins;
+            this.onApplied = onApplied;
+        }
+
+        void add(JsonElement element) throws InterruptedException {
+            int record = records++;
+            String error = element.isJsonObject() ? validator.apply(element.getAsJsonObject())
+                    : "Record is not a JSON object.";
+            if (error != null) {
+                setStatus(record, REJECTED);
+                rejected++;
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    JsonObject reason = new JsonObject();
+                    reason.addProperty("record", record);
+                    reason.addProperty("error", error);
+                    errors.add(reason);
+                }
+                return;
+            }
+            setStatus(record, FAILED); // Until its window is committed
+            window.add(element.getAsJsonObject());
+            windowRecords.add(record);
+            if (window.size() >= windowSize) {
+                commit();
+            }
+        }
+
+        // Stamp the window's new observations with consecutive stamps after the sender's, then wait until they
+        // are durable
+        void commit() throws InterruptedException {
+            if (window.isEmpty()) {
+                return;
+            }
+            List<Integer> accepted = new ArrayList<>();
+            List<JsonObject> entries = new ArrayList<>();
+            for (int i = 0; i < window.size(); i++) {
+                JsonObject entry = window.get(i);
+                int record = windowRecords.get(i);
+                char outcome = acceptOrigin(origins, entry.get("id").getAsString(), receivedTimestamp + record);
+                if (outcome != APPLIED) {
+                    setStatus(record, outcome);
+                    if (outcome == DUPLICATE) {
+                        duplicates++;
+                    } else {
+                        stale++;
+                    }
+                    continue;
+                }
+                accepted.add(i);
+                entries.add(entry);
+            }
+            if (entries.isEmpty()) {
+                window.clear();
+                windowRecords.clear();
+                return;
+            }
+            long lastOrigin = receivedTimestamp + windowRecords.get(windowRecords.size() - 1);
+            List<LamportRequest> requests = committer.submitAll(lastOrigin, entries);
+            lastStamp = requests.get(requests.size() - 1).getLamportTimestamp();
+
+            try {
+                for (LamportRequest request : requests) {
+                    request.awaitCommitted();
+                }
+                Map<String, Long> updates = new HashMap<>();
+                for (int j = 0; j < accepted.size(); j++) {
+                    setStatus(windowRecords.get(accepted.get(j)), APPLIED);
+                    updates.put(entries.get(j).get("id").getAsString(), requests.get(j).getLamportTimestamp());
+                }
+                applied += accepted.size();
+                onApplied.accept(updates);
+            } catch (IOException e) {
+                // Let a resent upload apply the observations again
+                for (int i : accepted) {
+                    String id = window.get(i).get("id").getAsString();
+                    origins.remove(id, receivedTimestamp + windowRecords.get(i));
+                }
+                failure = "Failed to persist weather data.";
+                persistFailed = true;
+            }
+            window.clear();
+            windowRecords.clear();
+        }
+
+        // Only the first MAX_REPORTED_STATUS records keep a status, records are numbered in the order they are read
+        private void setStatus(int record, char outcome) {
+            if (record == status.length() && record < MAX_REPORTED_STATUS) {
+                status.append(outcome);
+            } else if (record < status.length()) {
+                status.setCharAt(record, outcome);
+            }
+        }
+
+        Result result() {
+            long stamp = lastStamp >= 0 ? lastStamp
+                    : lamportClock.tick(receivedTimestamp + Math.max(0, records - 1));
+            return new Result(records, status.toString(), applied, duplicates, stale, rejected, errors, stamp,
+                    failure, persistFailed);
+        }
+    }
+}
@@ -1 +1,287 @@
-package com.example.weather;
\ No newline at end of file
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+// Usage: java ContentServer <server> <file>...
+// Reads station observations from text files of "key:value" lines, where each "id" line starts a new station,
+// and uploads them to the AggregationServer's /bulk endpoint, up to contentserver.batchSize observations per
+// request. Requests share the keep-alive connections of one HttpClient with at most contentserver.window in
+// flight at once. The clock is first synchronised with the server's, so a restarted content server stamps its
+// observations after everything it sent before. A failed request is resent with the same Lamport stamps, so the
+// server skips the observations it already applied. The files are sent contentserver.rounds times, restamped
+// each time.
+public class ContentServer {
+    private static final int BATCH_SIZE = Integer.getInteger("contentserver.batchSize", 500);
+    private static final int WINDOW = Integer.getInteger("contentserver.window", 8);
+    private static final int ROUNDS = Integer.getInteger("contentserver.rounds", 1);
+    private static final int MAX_ATTEMPTS = Integer.getInteger("contentserver.attempts", 5);
+    private static final long RETRY_MS = Long.getLong("contentserver.retryMs", 200);
+
+    // Name sent with every upload, the server expires this content server's stations once it goes quiet
+    private static final String SERVER_ID = System.getProperty("contentserver.id", UUID.randomUUID().toString());
+
+    // Fields sent as JSON numbers, integers when the value has no fraction, everything else is sent as a string
+    private static final Set<String> NUMERIC_FIELDS = Set.of("lat", "lon", "air_temp", "apparent_t", "dewpt",
+            "press", "rel_hum", "wind_spd_kmh", "wind_spd_kt");
+
+    // Stamps each batch, and moved forward by the server's reply
+    private static final LamportClock lamportClock = new LamportClock();
+
+    // The outcome of one batch: how many observations the server applied, skipped or rejected, or why it failed
+    private record Upload(int status, int attempts, long nanos, int applied, int duplicates, int stale,
+            int rejected, String error) {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java ContentServer <server> <file>...");
+            System.exit(1);
+        }
+        String serverURL = args[0].startsWith("http://") ? args[0] : "http://" + args[0];
+
+        List<JsonObject> observations = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            try {
+                observations.addAll(readObservations(Paths.get(args[i])));
+            } catch (IOException e) {
+                System.err.println("Failed to read " + args[i] + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        if (observations.isEmpty()) {
+            System.err.println("No observations with an id found.");
+            System.exit(1);
+        }
+
+        upload(URI.create(serverURL + "/bulk"), observations);
+    }
+
+    // Read a file of "key:value" lines into observations, a new observation starting at each "id" line
+    private static List<JsonObject> readObservations(Path file) throws IOException {
+        List<JsonObject> observations = new ArrayList<>();
+        JsonObject current = null;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    continue; // Blank or malformed line
+                }
+                String key = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (key.equals("id")) {
+                    current = new JsonObject();
+                    observations.add(current);
+                } else if (current == null) {
+                    System.err.println("Skipping '" + key + "' before the first id in " + file.getFileName());
+                    continue;
+                }
+                if (NUMERIC_FIELDS.contains(key)) {
+                    try {
+                        current.addProperty(key, parseNumber(value));
+                        continue;
+                    } catch (NumberFormatException e) {
+                        System.err.println("Sending non-numeric '" + key + "' as a string: " + value);
+                    }
+                }
+                current.addProperty(key, value);
+            }
+        }
+        return observations;
+    }
+
+    // Integral values such as rel_hum stay integers, so the server does not receive 45.0 for 45
+    private static Number parseNumber(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(value);
+        }
+    }
+
+    // Send every observation in batches, ROUNDS times over, then report throughput and latency
+    private static void upload(URI bulkURI, List<JsonObject> observations) {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        // Requests are sent asynchronously, the semaphore bounds how many are in flight at once
+        try {
+            synchronise(client, bulkURI);
+        } catch (IOException e) {
+            System.err.println("Failed to reach the server: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        Semaphore inFlight = new Semaphore(WINDOW);
+        List<CompletableFuture<Upload>> pending = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < observations.size(); i += BATCH_SIZE) {
+                List<JsonObject> batch = observations.subList(i, Math.min(observations.size(), i + BATCH_SIZE));
+                inFlight.acquireUninterruptibly();
+
+                // The batch keeps its stamps and body through every retry
+                long firstStamp = lamportClock.reserve(batch.size());
+                StringBuilder body = new StringBuilder();
+                for (JsonObject observation : batch) {
+                    body.append(observation).append('\n');
+                }
+                HttpRequest request = HttpRequest.newBuilder(bulkURI)
+                        .header("Lamport-Timestamp", String.valueOf(firstStamp))
+                        .header("Content-Type", "application/x-ndjson")
+                        .header("Content-Server-ID", SERVER_ID)
+                        .timeout(Duration.ofSeconds(30))
+                        .PUT(chunked(body.toString()))
+                        .build();
+                pending.add(send(client, request, 1, System.nanoTime())
+                        .whenComplete((upload, e) -> inFlight.release()));
+            }
+        }
+        List<Upload> uploads = pending.stream().map(CompletableFuture::join).toList();
+        long elapsed = System.nanoTime() - start;
+
+        long[] latencies = new long[uploads.size()];
+        long applied = 0;
+        long duplicates = 0;
+        long stale = 0;
+        long rejected = 0;
+        int retried = 0;
+        int failed = 0;
+        for (int i = 0; i < uploads.size(); i++) {
+            Upload upload = uploads.get(i);
+            latencies[i] = upload.nanos();
+            applied += upload.applied();
+            duplicates += upload.duplicates();
+            stale += upload.stale();
+            rejected += upload.rejected();
+            if (upload.attempts() > 1) {
+                retried++;
+            }
+            if (upload.error() != null) {
+                failed++;
+                System.err.println("Batch " + i + " failed after " + upload.attempts() + " attempts: "
+                        + upload.error());
+            }
+        }
+        Arrays.sort(latencies);
+        long sent = (long) observations.size() * ROUNDS;
+        System.out.printf("Uploaded %,d observations in %d batches (%d retried, %d failed), %,d applied, "
+                + "%,d duplicates skipped, %,d stale, %,d rejected%n", sent, uploads.size(), retried, failed,
+                applied, duplicates, stale, rejected);
+        System.out.printf("Throughput: %,.0f observations/s over %.1f ms | Lamport Clock: %d%n",
+                sent / (elapsed / 1e9), elapsed / 1e6, lamportClock.getTime());
+        System.out.printf("Batch latency ms: p50 %.2f | p99 %.2f | max %.2f%n", percentile(latencies, 0.50),
+                percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Send an empty upload and take the server's clock from the reply. The server's clock is past every stamp it
+    // has received, so this content server's next stamps are later than anything it sent before a restart.
+    private static void synchronise(HttpClient client, URI bulkURI) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(bulkURI)
+                .header("Lamport-Timestamp", String.valueOf(lamportClock.getTime()))
+                .header("Content-Server-ID", SERVER_ID)
+                .timeout(Duration.ofSeconds(30))
+                .PUT(HttpRequest.BodyPublishers.noBody())
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 204) {
+            throw new IOException("Response Code: " + response.statusCode() + " " + response.body());
+        }
+        tickFrom(response);
+    }
+
+    // Send the request, resending it after a connection failure or server error until MAX_ATTEMPTS is reached
+    private static CompletableFuture<Upload> send(HttpClient client, HttpRequest request, int attempt,
+            long started) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, e) -> {
+                    if (e != null) {
+                        return new Upload(0, attempt, System.nanoTime() - started, 0, 0, 0, 0, e.getMessage());
+                    }
+                    return read(response, attempt, started);
+                })
+                .thenCompose(upload -> {
+                    boolean retry = upload.error() != null && (upload.status() == 0 || upload.status() >= 500);
+                    if (!retry || attempt >= MAX_ATTEMPTS) {
+                        return CompletableFuture.completedFuture(upload);
+                    }
+                    return CompletableFuture.supplyAsync(() -> null,
+                            CompletableFuture.delayedExecutor(RETRY_MS * attempt, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> send(client, request, attempt + 1, started));
+                });
+    }
+
+    // Sent without a Content-Length, so the server can read the observations as they arrive
+    private static HttpRequest.BodyPublisher chunked(String body) {
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofString(body));
+    }
+
+    private static void tickFrom(HttpResponse<String> response) {
+        response.headers().firstValue("Lamport-Timestamp").ifPresent(received -> {
+            try {
+                lamportClock.tick(Long.parseLong(received));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid Lamport timestamp from server: " + received);
+            }
+        });
+    }
+
+    private static Upload read(HttpResponse<String> response, int attempt, long started) {
+        long nanos = System.nanoTime() - started;
+        tickFrom(response);
+
+        // 409 means every observation was older than one already applied, which is counted as stale, not failed
+        int status = response.statusCode();
+        if (status != 200 && status != 201 && status != 409) {
+            return new Upload(status, attempt, nanos, 0, 0, 0, 0,
+                    "Response Code: " + status + " " + response.body());
+        }
+        try {
+            JsonObject result = JsonParser.parseString(response.body()).getAsJsonObject();
+            int rejected = result.get("rejected").getAsInt();
+            if (rejected > 0) {
+                System.err.println("Server rejected " + rejected + " observations: " + result.get("errors"));
+            }
+            int stale = result.get("stale").getAsInt();
+            if (stale > 0) {
+                System.err.println("Server skipped " + stale + " observations older than ones already sent");
+            }
+            return new Upload(status, attempt, nanos, result.get("applied").getAsInt(),
+                    result.get("duplicates").getAsInt(), stale, rejected, null);
+        } catch (RuntimeException e) {
+            return new Upload(status, attempt, nanos, 0, 0, 0, 0, "Invalid response: " + e.getMessage());
+        }
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
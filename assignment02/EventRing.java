@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded ring buffer of recently committed station updates, kept in Lamport timestamp order, that
+// subscribers long-poll to receive every applied PUT and resume from a Lamport offset after reconnecting.
+// An update is only added once every earlier stamp has been committed, until then it is held back, so a
+// subscriber never moves past a stamp that is still to be published.
+public class EventRing {
+    private final StationRecord[] events;
+    private int head; // Index of the oldest event
+    private int size;
+
+    // Highest timestamp pushed out of the buffer, subscribers behind it have missed events
+    private long evictedUpTo = -1;
+
+    // Highest timestamp added to the buffer, every update up to it has been published
+    private long publishedUpTo = -1;
+
+    // Committed updates waiting for earlier stamps to commit
+    private final PriorityQueue<StationRecord> held =
+            new PriorityQueue<>(Comparator.comparingLong(StationRecord::getLamportTimestamp));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+
+    public EventRing(int capacity) {
+        this.events = new StationRecord[Math.max(1, capacity)];
+    }
+
+    // Updates up to the given timestamp were committed before startup and are not in the buffer, subscribers
+    // behind it resynchronise from the store
+    public void startAfter(long lamportTimestamp) {
+        lock.lock();
+        try {
+            evictedUpTo = Math.max(evictedUpTo, lamportTimestamp);
+            publishedUpTo = Math.max(publishedUpTo, lamportTimestamp);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Add committed updates, then publish every held update stamped below lowWater, the lowest stamp not yet
+    // committed. The oldest events are evicted once the buffer is full.
+    public void publish(List<StationRecord> records, long lowWater) {
+        lock.lock();
+        try {
+            held.addAll(records);
+            boolean added = false;
+            while (!held.isEmpty() && held.peek().getLamportTimestamp() < lowWater) {
+                StationRecord record = held.poll();
+                if (size == events.length) {
+                    evictedUpTo = Math.max(evictedUpTo, events[head].getLamportTimestamp());
+                    events[head] = null;
+                    head = (head + 1) % events.length;
+                    size--;
+                }
+                set(size, record);
+                size++;
+                publishedUpTo = record.getLamportTimestamp();
+                added = true;
+            }
+            if (added) {
+                published.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Highest timestamp evicted, updates up to it are no longer held for subscribers
+    public long getEvictedUpTo() {
+        lock.lock();
+        try {
+            return evictedUpTo;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Highest timestamp published, a subscriber resuming from it receives every later update
+    public long getPublishedUpTo() {
+        lock.lock();
+        try {
+            return publishedUpTo;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Events after the given Lamport timestamp, waiting up to timeoutMillis for one to be published.
+    // Returns an empty list on timeout, or null if events after since have already been evicted.
+    public List<StationRecord> awaitSince(long since, long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (true) {
+                if (since < evictedUpTo) {
+                    return null;
+                }
+                int first = firstAfter(since);
+                if (first < size) {
+                    List<StationRecord> result = new ArrayList<>(size - first);
+                    for (int i = first; i < size; i++) {
+                        result.add(at(i));
+                    }
+                    return result;
+                }
+                if (remaining <= 0) {
+                    return List.of();
+                }
+                remaining = published.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Binary search for the first event with a timestamp greater than since
+    private int firstAfter(long since) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (at(mid).getLamportTimestamp() <= since) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private StationRecord at(int position) {
+        return events[(head + position) % events.length];
+    }
+
+    private void set(int position, StationRecord record) {
+        events[(head + position) % events.length] = record;
+    }
+}
@@ -1,20 +1,47 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
-
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+// Usage: java GETClient <server> [stationID]
+//        java GETClient <server> <stationID> <stationID>... (or IDs separated by commas)
+// With several station IDs they are fetched concurrently over one keep-alive HttpClient, at most
+// getclient.concurrency at a time, or in requests of up to getclient.batchSize stations each using
+// the server's ?ids= endpoint when getclient.batch is true.
 public class GETClient {
+    private static final int CONCURRENCY = Integer.getInteger("getclient.concurrency", 32);
+    private static final boolean BATCH = Boolean.getBoolean("getclient.batch");
+    private static final int BATCH_SIZE = Integer.getInteger("getclient.batchSize", 100);
+
+    // Sent with every request, and moved forward by the server's reply
+    private static final LamportClock lamportClock = new LamportClock();
+
     private static final String[] dateParts = { "January", "February", "March", "April", "May", "June", "July",
             "August", "September", "October", "November", "December" };
     private static final String[] validAttributes = { "id", "name", "state", "time_zone", "lat", "lon",
@@ -25,11 +52,25 @@ public class GETClient {
         String serverURL = args[0];
         String stationID = null;
 
+        // Several stations requested, fetch them all concurrently
+        List<String> stationIDs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            for (String id : args[i].split(",")) {
+                if (!id.isBlank()) {
+                    stationIDs.add(id.trim());
+                }
+            }
+        }
+        if (stationIDs.size() > 1) {
+            fetchAll(serverURL.startsWith("http://") ? serverURL : "http://" + serverURL, stationIDs);
+            return;
+        }
+
         // If args[1] not provided, default to "/weather", else use provided stationID
         // as argument
         // e.g. args[1] = "IDS12345", stationID = "IDS12345"
         if (args.length > 1) {
-            stationID = "/?id=" + args[1];
+            stationID = "/?id=" + URLEncoder.encode(args[1], StandardCharsets.UTF_8);
         }
 
         // Pad the URL with "http://" if missing
@@ -76,6 +117,7 @@ public class GETClient {
                 // Should now be ready to make the HTTP request
                 HttpURLConnection connection = (HttpURLConnection) url.openConnection();
                 connection.setRequestMethod("GET");
+                connection.setRequestProperty("Lamport-Timestamp", String.valueOf(lamportClock.tick()));
 
                 // Check the response code
                 int responseCode = connection.getResponseCode();
@@ -108,6 +150,152 @@ public class GETClient {
 
     }
 
+    // The outcome of one request: the stations it returned, or why it failed
+    private record Fetch(String path, int status, long nanos, List<Map<String, String>> stations, String error) {
+    }
+
+    // Fetch every station concurrently over one HttpClient, whose connections are kept alive and reused,
+    // then display the stations in the order requested along with the latency of each request
+    private static void fetchAll(String serverURL, List<String> stationIDs) {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        List<String> paths = new ArrayList<>();
+        if (BATCH) {
+            for (int i = 0; i < stationIDs.size(); i += BATCH_SIZE) {
+                List<String> batch = new ArrayList<>();
+                for (String stationID : stationIDs.subList(i, Math.min(stationIDs.size(), i + BATCH_SIZE))) {
+                    batch.add(URLEncoder.encode(stationID, StandardCharsets.UTF_8));
+                }
+                paths.add("/?ids=" + String.join(",", batch));
+            }
+        } else {
+            for (String stationID : stationIDs) {
+                paths.add("/?id=" + URLEncoder.encode(stationID, StandardCharsets.UTF_8));
+            }
+        }
+
+        // Requests are sent asynchronously, the semaphore bounds how many are in flight at once
+        Semaphore inFlight = new Semaphore(CONCURRENCY);
+        List<CompletableFuture<Fetch>> pending = new ArrayList<>();
+        long start = System.nanoTime();
+        for (String path : paths) {
+            // A bad server URL fails this request on its own, like any other request that could not be sent
+            HttpRequest request;
+            try {
+                request = HttpRequest.newBuilder(new URI(serverURL + path))
+                        .header("Lamport-Timestamp", String.valueOf(lamportClock.tick()))
+                        .timeout(Duration.ofSeconds(30))
+                        .GET()
+                        .build();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                pending.add(CompletableFuture.completedFuture(
+                        new Fetch(path, 0, 0, List.of(), "Invalid URL: " + e.getMessage())));
+                continue;
+            }
+            inFlight.acquireUninterruptibly();
+            long sent = System.nanoTime();
+            pending.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                    .thenApply(response -> read(path, response, sent))
+                    .exceptionally(e -> new Fetch(path, 0, System.nanoTime() - sent, List.of(), e.getMessage()))
+                    .whenComplete((fetch, e) -> inFlight.release()));
+        }
+        List<Fetch> fetches = pending.stream().map(CompletableFuture::join).toList();
+        long elapsed = System.nanoTime() - start;
+
+        // Display the stations in the order they were asked for
+        Map<String, Map<String, String>> byID = new HashMap<>();
+        for (Fetch fetch : fetches) {
+            for (Map<String, String> station : fetch.stations()) {
+                byID.put(station.get("id"), station);
+            }
+        }
+        System.out.println("============================================");
+        for (String stationID : stationIDs) {
+            Map<String, String> station = byID.get(stationID);
+            if (station == null) {
+                System.err.println("No weather data for station " + stationID);
+                continue;
+            }
+            displayAttributes(station);
+            System.out.println("--------------------------------------------");
+        }
+        System.out.println("============================================");
+
+        long[] latencies = new long[fetches.size()];
+        int failed = 0;
+        for (int i = 0; i < fetches.size(); i++) {
+            Fetch fetch = fetches.get(i);
+            latencies[i] = fetch.nanos();
+            if (fetch.error() != null) {
+                failed++;
+                System.err.printf("GET %s failed: %s%n", fetch.path(), fetch.error());
+            } else {
+                System.out.printf("GET %s: %d in %.2f ms%n", fetch.path(), fetch.status(), fetch.nanos() / 1e6);
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.printf("Fetched %d of %d stations in %d requests (%d failed), %.1f ms total%n", byID.size(),
+                stationIDs.size(), fetches.size(), failed, elapsed / 1e6);
+        System.out.printf("Latency ms: p50 %.2f | p99 %.2f | max %.2f%n", percentile(latencies, 0.50),
+                percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+    }
+
+    // Parse the response as it arrives rather than buffering the whole body first
+    private static Fetch read(String path, HttpResponse<InputStream> response, long sent) {
+        response.headers().firstValue("Lamport-Timestamp").ifPresent(received -> {
+            try {
+                lamportClock.tick(Long.parseLong(received));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid Lamport timestamp from server: " + received);
+            }
+        });
+
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                return new Fetch(path, response.statusCode(), System.nanoTime() - sent, List.of(),
+                        "Response Code: " + response.statusCode());
+            }
+            List<Map<String, String>> stations = parseStations(body);
+            return new Fetch(path, 200, System.nanoTime() - sent, stations, null);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            return new Fetch(path, response.statusCode(), System.nanoTime() - sent, List.of(),
+                    "Invalid JSON: " + e.getMessage());
+        }
+    }
+
+    // Read a JSON array of station objects token by token into attribute maps
+    private static List<Map<String, String>> parseStations(InputStream body) throws IOException {
+        List<Map<String, String>> stations = new ArrayList<>();
+        JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Map<String, String> station = new LinkedHashMap<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                JsonToken token = reader.peek();
+                if (token == JsonToken.STRING || token == JsonToken.NUMBER || token == JsonToken.BOOLEAN) {
+                    station.put(name, token == JsonToken.BOOLEAN ? String.valueOf(reader.nextBoolean())
+                            : reader.nextString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            stations.add(station);
+        }
+        reader.endArray();
+        return stations;
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
     // Function to display JSON data in the required format
     private static void displayData(String jsonData) {
         try {
@@ -0,0 +1,292 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.gson.JsonObject;
+
+// Writers for the feed: stations are partitioned across shards by id, and each shard has a single committer
+// thread that drains its queued PUT requests in batches, makes each batch durable with one write-ahead log append
+// and only then applies it to the store in Lamport order and releases the waiting callers. Every update for a
+// station goes through the same shard, so per-station Lamport ordering is kept while different stations are
+// committed in parallel. Requests are stamped as they are queued, and subscribers only see an update once every
+// earlier stamp has been committed, so shards finishing out of order never hide an update from a subscriber that
+// has already moved past its stamp.
+public class GroupCommitter {
+    // Queued on every shard by shutdown. It sorts after any real request, so each shard commits what is still
+    // queued and then stops, without being interrupted in the middle of a log write.
+    private static final LamportRequest STOP = new LamportRequest(Long.MAX_VALUE, new JsonObject());
+
+    private final LamportClock lamportClock;
+    private final StationStore store;
+    private final WriteAheadLog wal;
+    private final EventRing events;
+    private final Path snapshot;
+    private final Path temp;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final int compactEvery;
+    private final Shard[] shards;
+
+    // Stamps queued but not yet committed, the lowest bounds which updates subscribers may see
+    private final TreeSet<Long> uncommitted = new TreeSet<>();
+
+    // Held shared by a shard from appending a batch until it is in the store, and exclusively while compacting,
+    // so a snapshot never misses a record that compaction drops from the log
+    private final ReentrantReadWriteLock compaction = new ReentrantReadWriteLock();
+
+    private volatile boolean running = true;
+
+    public GroupCommitter(LamportClock lamportClock, StationStore store, WriteAheadLog wal, EventRing events,
+            Path snapshot, Path temp, int shardCount, int maxBatchSize, long maxLingerMillis, int compactEvery) {
+        this.lamportClock = lamportClock;
+        this.store = store;
+        this.wal = wal;
+        this.events = events;
+        this.snapshot = snapshot;
+        this.temp = temp;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxLingerMillis));
+        this.compactEvery = compactEvery;
+        this.shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    public void start() {
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // Stamp an update later than the sender's timestamp and queue it on its station's shard, callers wait on
+    // request.awaitCommitted()
+    public LamportRequest submit(long receivedTimestamp, JsonObject content) {
+        return submitAll(receivedTimestamp, List.of(content)).get(0);
+    }
+
+    // Stamp updates with consecutive timestamps later than the sender's and queue them
+    public List<LamportRequest> submitAll(long receivedTimestamp, List<JsonObject> contents) {
+        List<LamportRequest> requests = new ArrayList<>(contents.size());
+        synchronized (uncommitted) {
+            long firstStamp = lamportClock.reserve(receivedTimestamp, contents.size());
+            for (int i = 0; i < contents.size(); i++) {
+                requests.add(new LamportRequest(firstStamp + i, contents.get(i)));
+                uncommitted.add(firstStamp + i);
+            }
+        }
+        for (LamportRequest request : requests) {
+            shardFor(request.getContent().get("id").getAsString()).submit(request);
+        }
+        return requests;
+    }
+
+    // Block until every request submitted before this call has been committed
+    public void awaitCommitted() throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.awaitCommitted();
+        }
+    }
+
+    // Stop every shard, committing anything still queued. Interrupting a shard could close the log, as a
+    // FileChannel is closed when a thread blocked on it is interrupted.
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Shard shard : shards) {
+            shard.putQueue.add(STOP);
+        }
+        for (Shard shard : shards) {
+            shard.thread.join();
+            List<LamportRequest> remaining = new ArrayList<>();
+            shard.putQueue.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                shard.commit(remaining);
+            }
+        }
+    }
+
+    private Shard shardFor(String id) {
+        return shards[Math.floorMod(id.hashCode(), shards.length)];
+    }
+
+    private class Shard {
+        // Priority queue to store PUT requests based on Lamport clock timestamps
+        private final PriorityBlockingQueue<LamportRequest> putQueue = new PriorityBlockingQueue<>();
+
+        // Requests submitted and requests committed, used by readers to wait for preceding PUTs
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition committedChanged = lock.newCondition();
+        private long submitted;
+        private long committed;
+
+        private final Thread thread;
+
+        Shard(int index) {
+            thread = new Thread(this::run, "put-committer-" + index);
+            thread.setDaemon(true);
+        }
+
+        void submit(LamportRequest request) {
+            lock.lock();
+            try {
+                submitted++;
+                putQueue.add(request);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void awaitCommitted() throws InterruptedException {
+            lock.lock();
+            try {
+                long target = submitted;
+                while (committed < target) {
+                    committedChanged.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void run() {
+            boolean stopped = false;
+            while (running || !stopped) {
+                try {
+                    List<LamportRequest> batch = nextBatch();
+                    stopped = batch.remove(STOP);
+                    if (!batch.isEmpty()) {
+                        commit(batch);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        // Wait for the first request, then linger up to maxLingerNanos for more until the batch is full
+        private List<LamportRequest> nextBatch() throws InterruptedException {
+            List<LamportRequest> batch = new ArrayList<>();
+            batch.add(putQueue.take());
+
+            long deadline = System.nanoTime() + maxLingerNanos;
+            while (batch.size() < maxBatchSize) {
+                putQueue.drainTo(batch, maxBatchSize - batch.size());
+                long remaining = deadline - System.nanoTime();
+                if (batch.size() >= maxBatchSize || remaining <= 0) {
+                    break;
+                }
+                LamportRequest next = putQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+
+            // Requests arriving while lingering may carry earlier timestamps
+            Collections.sort(batch);
+            return batch;
+        }
+
+        // Persist the batch with one fsync, apply it, publish it to subscribers and release its callers. A batch
+        // that could not be persisted is not applied, its callers get the failure.
+        private void commit(List<LamportRequest> batch) {
+            List<StationRecord> applied = List.of();
+            IOException failure = null;
+            compaction.readLock().lock();
+            try {
+                wal.append(batch);
+                applied = apply(batch);
+            } catch (IOException e) {
+                System.err.println("Failed to write to weather.wal: " + e.getMessage());
+                failure = e;
+            } finally {
+                compaction.readLock().unlock();
+            }
+            if (failure == null) {
+                compactIfNeeded();
+            }
+
+            // Stamps are taken under the same lock, so every stamp given later is above the new low-water mark
+            synchronized (uncommitted) {
+                for (LamportRequest request : batch) {
+                    uncommitted.remove(request.getLamportTimestamp());
+                }
+                events.publish(applied, uncommitted.isEmpty() ? Long.MAX_VALUE : uncommitted.first());
+            }
+
+            // Tombstones are kept as long as their removal is still in the subscribers' buffer
+            store.pruneTombstones(events.getEvictedUpTo());
+            for (LamportRequest request : batch) {
+                request.complete(failure);
+            }
+
+            lock.lock();
+            try {
+                committed += batch.size();
+                committedChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Apply a persisted batch to the store in Lamport order, returning the records that changed
+        private List<StationRecord> apply(List<LamportRequest> batch) {
+            List<StationRecord> applied = new ArrayList<>(batch.size());
+            for (LamportRequest request : batch) {
+                String id = request.getContent().get("id").getAsString();
+                if (StationRecord.isExpiry(request.getContent())) {
+                    StationRecord tombstone = store.apply(request.getLamportTimestamp(), request.getContent());
+                    if (tombstone != null) {
+                        applied.add(tombstone);
+                        System.out.println("Expired data for ID: " + id);
+                    }
+                    continue;
+                }
+                boolean created = store.get(id) == null; // Only this shard writes the station
+                StationRecord record = store.apply(request.getLamportTimestamp(), request.getContent());
+                if (record == null) {
+                    System.out.println("Ignored out-of-date update for ID: " + id);
+                    continue;
+                }
+                applied.add(record);
+                if (created) {
+                    System.out.println("New entry added to weather.json.");
+                } else {
+                    System.out.println("Data updated for ID: " + id);
+                }
+            }
+            return applied;
+        }
+
+        // Fold the log into a snapshot once enough records have been appended. The batch is already durable in
+        // the log, so a failed compaction does not fail it.
+        private void compactIfNeeded() {
+            if (wal.getRecordsSinceSnapshot() < compactEvery) {
+                return; // Checked first, so shards only wait for each other when a compaction is due
+            }
+            compaction.writeLock().lock();
+            try {
+                if (wal.compactIfNeeded(store, snapshot, temp, compactEvery, lamportClock.getTime())) {
+                    System.out.println("weather.wal compacted into weather.json");
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to compact weather.wal: " + e.getMessage());
+            } finally {
+                compaction.writeLock().unlock();
+            }
+        }
+    }
+}
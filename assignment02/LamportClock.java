@@ -1,28 +1,50 @@
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.JsonSyntaxException;
+import java.util.concurrent.atomic.AtomicLong;
 
+// Lamport clock held in a single AtomicLong, so every operation is one compare-and-set with no lock.
+// Each call both moves the clock and returns the stamp it assigned, so a request is stored, logged and
+// answered with the same timestamp even while other requests tick the clock concurrently.
 public class LamportClock {
-    private int clock;
+    private final AtomicLong clock = new AtomicLong();
 
-    public LamportClock() {
-        this.clock = 0;
+    // Assign a stamp to a local event or an outgoing message
+    public long tick() {
+        return reserve(1);
     }
 
-    // Increment when sending a message
-    public synchronized int increment() {
-        return clock++;
+    // Assign a stamp to a received message, later than both the sender's stamp and any stamp given so far
+    public long tick(long receivedTime) {
+        return reserve(receivedTime, 1);
     }
 
-    // Update the clock when receiving a message
-    public synchronized void update(int receivedTime) {
-        clock = Math.max(clock, receivedTime) + 1;
+    // Assign count consecutive stamps at once, e.g. to a batch of updates, returning the first of them
+    public long reserve(int count) {
+        return reserve(0, count);
     }
 
-    // Get the current time
-    public synchronized int getTime() {
-        return clock;
+    // Assign count consecutive stamps to a received batch, all later than the sender's stamp for it
+    public long reserve(long receivedTime, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Must reserve at least one timestamp");
+        }
+        while (true) {
+            long current = clock.get();
+            long start = Math.max(current, receivedTime);
+            if (clock.compareAndSet(current, checkedIncrement(start, count))) {
+                return start + 1;
+            }
+        }
+    }
+
+    // Get the current time, the last stamp assigned
+    public long getTime() {
+        return clock.get();
+    }
+
+    // Refuse to wrap around, which would order every later event before every earlier one
+    private static long checkedIncrement(long time, int count) {
+        if (time > Long.MAX_VALUE - count) {
+            throw new IllegalStateException("Lamport clock exhausted at " + time);
+        }
+        return time + count;
     }
 }
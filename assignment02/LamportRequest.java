@@ -4,17 +4,22 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 // Request wrapper for PUT requests with Lamport timestamp
 public class LamportRequest implements Comparable<LamportRequest> {
-    private final int lamportTimestamp;
+    private final long lamportTimestamp;
     private final JsonObject content;
+    private final CompletableFuture<Void> committed = new CompletableFuture<>();
 
-    public LamportRequest(int lamportTimestamp, JsonObject content) {
+    public LamportRequest(long lamportTimestamp, JsonObject content) {
         this.lamportTimestamp = lamportTimestamp;
         this.content = content;
     }
 
-    public int getLamportTimestamp() {
+    public long getLamportTimestamp() {
         return lamportTimestamp;
     }
 
@@ -22,9 +27,27 @@ public class LamportRequest implements Comparable<LamportRequest> {
         return content;
     }
 
+    // Mark the request as durable, or as failed if its batch could not be persisted
+    public void complete(IOException failure) {
+        if (failure == null) {
+            committed.complete(null);
+        } else {
+            committed.completeExceptionally(failure);
+        }
+    }
+
+    // Block until the batch containing this request has been applied and persisted
+    public void awaitCommitted() throws IOException, InterruptedException {
+        try {
+            committed.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to persist request", e.getCause());
+        }
+    }
+
     // Ensure requests are ordered by Lamport timestamp
     @Override
     public int compareTo(LamportRequest other) {
-        return Integer.compare(this.lamportTimestamp, other.lamportTimestamp);
+        return Long.compare(this.lamportTimestamp, other.lamportTimestamp);
     }
 }
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Expires the stations of content servers that have not been in contact for ttl. Each content server has one
+// check in a deadline-ordered queue. Contact only moves the server's deadline forward; a check that comes due
+// early is requeued at the new deadline, so a busy server costs one requeue per ttl and nothing is ever scanned.
+// A stale server's stations are removed through the committer, stamped and logged like any PUT.
+public class StationExpiry {
+    private final long ttlNanos;
+    private final GroupCommitter committer;
+    private final Consumer<String> onExpired; // Given the id of each content server once its stations are removed
+
+    private final ConcurrentHashMap<String, Source> servers = new ConcurrentHashMap<>();
+
+    // Content server whose data is currently held for each station, the one with the latest PUT
+    private final ConcurrentHashMap<String, Owner> owners = new ConcurrentHashMap<>();
+
+    private record Owner(Source source, long lamportTimestamp) {
+    }
+
+    private final DelayQueue<Check> checks = new DelayQueue<>();
+    private final Thread thread;
+
+    private static class Source {
+        private final String id;
+        private final Set<String> stations = new HashSet<>(); // May include stations since taken over by others
+        private volatile long deadline;
+        private boolean expired;
+
+        Source(String id, long deadline) {
+            this.id = id;
+            this.deadline = deadline;
+        }
+    }
+
+    // Time to look at a content server again
+    private record Check(Source server, long deadline) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadline, ((Check) other).deadline);
+        }
+    }
+
+    public StationExpiry(long ttlMillis, GroupCommitter committer, Consumer<String> onExpired) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.committer = committer;
+        this.onExpired = onExpired;
+        this.thread = new Thread(this::run, "station-expiry");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    // Record contact from a content server that has just updated the given stations, with the Lamport timestamp
+    // of each update
+    public void contact(String serverID, Map<String, Long> updates) {
+        long deadline = System.nanoTime() + ttlNanos;
+        while (true) {
+            Source server = servers.computeIfAbsent(serverID, id -> {
+                Source created = new Source(id, deadline);
+                checks.add(new Check(created, deadline));
+                return created;
+            });
+            synchronized (server) {
+                if (server.expired) {
+                    continue; // Expired just now, start over with a new entry
+                }
+                server.deadline = Math.max(server.deadline, deadline);
+                for (Map.Entry<String, Long> update : updates.entrySet()) {
+                    server.stations.add(update.getKey());
+                    owners.merge(update.getKey(), new Owner(server, update.getValue()),
+                            (current, next) -> next.lamportTimestamp() > current.lamportTimestamp() ? next : current);
+                }
+                return;
+            }
+        }
+    }
+
+    public int getServerCount() {
+        return servers.size();
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                Source server = checks.take().server();
+                Map<String, Long> stale = takeIfStale(server);
+                if (stale == null) {
+                    checks.add(new Check(server, server.deadline)); // Contacted since, look again later
+                } else {
+                    expire(server.id, stale);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // The stations to remove, with the timestamp of the server's last update to each, if the server has passed
+    // its deadline, or null if it is still live
+    private Map<String, Long> takeIfStale(Source server) {
+        synchronized (server) {
+            if (server.deadline - System.nanoTime() > 0) {
+                return null;
+            }
+            server.expired = true;
+            servers.remove(server.id, server);
+            Map<String, Long> stale = new HashMap<>();
+            for (String stationID : server.stations) {
+                Owner owner = owners.get(stationID);
+                if (owner != null && owner.source() == server && owners.remove(stationID, owner)) {
+                    stale.put(stationID, owner.lamportTimestamp());
+                }
+            }
+            return stale;
+        }
+    }
+
+    // Queue an expiry for each station, each only removing the server's own update, so a PUT from another
+    // server in the meantime is kept
+    private void expire(String serverID, Map<String, Long> stale) throws InterruptedException {
+        List<LamportRequest> requests = new ArrayList<>(stale.size());
+        for (Map.Entry<String, Long> station : stale.entrySet()) {
+            requests.add(committer.submit(0, StationRecord.expiry(station.getKey(), station.getValue())));
+        }
+        try {
+            for (LamportRequest request : requests) {
+                request.awaitCommitted();
+            }
+            System.out.println("Content server " + serverID + " not heard from in "
+                    + TimeUnit.NANOSECONDS.toMillis(ttlNanos) + " ms, expired " + requests.size() + " stations");
+            onExpired.accept(serverID);
+        } catch (IOException e) {
+            System.err.println("Failed to persist expiry of content server " + serverID + ": " + e.getMessage());
+        }
+    }
+}
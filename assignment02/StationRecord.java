@@ -0,0 +1,110 @@
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+// Latest known weather data for a single station, tagged with the Lamport timestamp of the PUT that produced it
+public class StationRecord {
+    // Fields overwritten when a station that is already in the feed is updated
+    private static final String[] UPDATE_FIELDS = { "air_temp", "apparent_t", "cloud", "dewpt", "press", "rel_hum",
+            "wind_dir", "wind_spd_kmh", "wind_spd_kt", "local_date_time", "local_date_time_full" };
+
+    private final String id;
+    private final long lamportTimestamp;
+    private final JsonObject data;
+
+    // Serialized once when the record is created, so GET requests never touch the JSON tree
+    private final byte[] json;
+    private final byte[] jsonArray;
+
+    private StationRecord(String id, long lamportTimestamp, JsonObject data) {
+        this.id = id;
+        this.lamportTimestamp = lamportTimestamp;
+        this.data = data;
+        this.json = data.toString().getBytes(StandardCharsets.UTF_8);
+        this.jsonArray = new byte[json.length + 2];
+        jsonArray[0] = '[';
+        System.arraycopy(json, 0, jsonArray, 1, json.length);
+        jsonArray[jsonArray.length - 1] = ']';
+    }
+
+    // Create a record for a station that is not yet in the feed
+    public static StationRecord create(long lamportTimestamp, JsonObject entry) {
+        JsonObject data = entry.deepCopy();
+        data.addProperty("lamport_timestamp", lamportTimestamp);
+        return new StationRecord(data.get("id").getAsString(), lamportTimestamp, data);
+    }
+
+    // Tombstone for a station removed because its content server went quiet, published to delta readers and
+    // subscribers so they drop the station too
+    public static StationRecord expired(long lamportTimestamp, String id) {
+        JsonObject data = new JsonObject();
+        data.addProperty("id", id);
+        data.addProperty("expired", true);
+        data.addProperty("lamport_timestamp", lamportTimestamp);
+        return new StationRecord(id, lamportTimestamp, data);
+    }
+
+    // Update removing a station, applied in Lamport order like any PUT. It only removes the station if it has
+    // not been updated after lastUpdate, the timestamp of the record that was found to be stale.
+    public static JsonObject expiry(String id, long lastUpdate) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("id", id);
+        entry.addProperty("expired", true);
+        entry.addProperty("last_update", lastUpdate);
+        return entry;
+    }
+
+    // Whether an update removes its station rather than updating it
+    public static boolean isExpiry(JsonObject entry) {
+        JsonElement expired = entry.get("expired");
+        return expired != null && expired.isJsonPrimitive() && expired.getAsJsonPrimitive().isBoolean()
+                && expired.getAsBoolean();
+    }
+
+    // Rebuild a record from its persisted form in a weather.json snapshot
+    public static StationRecord restore(JsonObject data) {
+        long lamportTimestamp = data.has("lamport_timestamp") ? data.get("lamport_timestamp").getAsLong() : 0;
+        return new StationRecord(data.get("id").getAsString(), lamportTimestamp, data);
+    }
+
+    // The same record under a new Lamport timestamp
+    public StationRecord restamp(long lamportTimestamp) {
+        JsonObject restamped = data.deepCopy();
+        restamped.addProperty("lamport_timestamp", lamportTimestamp);
+        return new StationRecord(id, lamportTimestamp, restamped);
+    }
+
+    // Create a new record with the observation fields of the update applied on top of this one
+    public StationRecord merge(long lamportTimestamp, JsonObject update) {
+        JsonObject merged = data.deepCopy();
+        for (String field : UPDATE_FIELDS) {
+            merged.add(field, update.get(field));
+        }
+        merged.addProperty("lamport_timestamp", lamportTimestamp);
+        return new StationRecord(id, lamportTimestamp, merged);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getLamportTimestamp() {
+        return lamportTimestamp;
+    }
+
+    // Records are never mutated after creation, callers must not modify the returned object or arrays
+    public JsonObject getData() {
+        return data;
+    }
+
+    // UTF-8 JSON of the station object
+    public byte[] getJson() {
+        return json;
+    }
+
+    // UTF-8 JSON of a single element array holding the station, the response body for ?id= lookups
+    public byte[] getJsonArray() {
+        return jsonArray;
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+// Authoritative in-memory weather feed, indexed by station id
+public class StationStore {
+    private final ConcurrentHashMap<String, StationRecord> stations = new ConcurrentHashMap<>();
+
+    // Stations ordered by the Lamport timestamp of their last update, for serving deltas, along with the tombstones
+    // of expired stations
+    private final ConcurrentSkipListMap<Version, StationRecord> byVersion = new ConcurrentSkipListMap<>();
+
+    // Tombstone of each expired station, dropped from byVersion if the station is updated again
+    private final ConcurrentHashMap<String, StationRecord> tombstones = new ConcurrentHashMap<>();
+
+    // The same tombstones in Lamport order, so the oldest can be pruned without a scan
+    private final ConcurrentSkipListMap<Version, StationRecord> tombstonesByVersion = new ConcurrentSkipListMap<>();
+
+    // Highest timestamp of a pruned tombstone, a delta from before it could miss a removal
+    private final AtomicLong prunedUpTo = new AtomicLong(-1);
+
+    // Feed version, the highest Lamport timestamp applied to any station
+    private final AtomicLong version = new AtomicLong();
+
+    private record Version(long lamportTimestamp, String id) implements Comparable<Version> {
+        @Override
+        public int compareTo(Version other) {
+            int result = Long.compare(lamportTimestamp, other.lamportTimestamp);
+            return result != 0 ? result : id.compareTo(other.id);
+        }
+    }
+
+    // Apply a PUT or an expiry to the feed, returning the station's new record or tombstone. Returns null if the
+    // update is older than the station's current record or removal, or if an expiry found the station already
+    // updated again or gone.
+    public StationRecord apply(long lamportTimestamp, JsonObject entry) {
+        if (StationRecord.isExpiry(entry)) {
+            return expire(lamportTimestamp, entry);
+        }
+        StationRecord[] applied = new StationRecord[1];
+        stations.compute(entry.get("id").getAsString(), (key, existing) -> {
+            if (existing == null) {
+                StationRecord tombstone = tombstones.get(key);
+                if (tombstone != null && tombstone.getLamportTimestamp() > lamportTimestamp) {
+                    return null; // Removed after this update was stamped
+                }
+                if (tombstone != null) {
+                    tombstones.remove(key, tombstone);
+                    byVersion.remove(versionOf(tombstone));
+                    tombstonesByVersion.remove(versionOf(tombstone));
+                }
+                applied[0] = StationRecord.create(lamportTimestamp, entry);
+            } else if (existing.getLamportTimestamp() > lamportTimestamp) {
+                return existing; // Stamped before the current record but committed after it
+            } else {
+                byVersion.remove(versionOf(existing));
+                applied[0] = existing.merge(lamportTimestamp, entry);
+            }
+            byVersion.put(versionOf(applied[0]), applied[0]);
+            return applied[0];
+        });
+        if (applied[0] != null) {
+            version.accumulateAndGet(lamportTimestamp, Math::max);
+        }
+        return applied[0];
+    }
+
+    // Remove a station unless it has been updated since the record the expiry was issued for
+    private StationRecord expire(long lamportTimestamp, JsonObject entry) {
+        String id = entry.get("id").getAsString();
+        long lastUpdate = entry.get("last_update").getAsLong();
+        StationRecord[] tombstone = new StationRecord[1];
+        stations.computeIfPresent(id, (key, existing) -> {
+            if (existing.getLamportTimestamp() > lastUpdate) {
+                return existing;
+            }
+            byVersion.remove(versionOf(existing));
+            tombstone[0] = StationRecord.expired(lamportTimestamp, id);
+            tombstones.put(id, tombstone[0]);
+            tombstonesByVersion.put(versionOf(tombstone[0]), tombstone[0]);
+            byVersion.put(versionOf(tombstone[0]), tombstone[0]);
+            return null;
+        });
+        if (tombstone[0] != null) {
+            version.accumulateAndGet(lamportTimestamp, Math::max);
+        }
+        return tombstone[0];
+    }
+
+    // Drop the tombstones stamped at or before the given timestamp, once no reader is expected to need them
+    public void pruneTombstones(long lamportTimestamp) {
+        Iterator<StationRecord> expired =
+                tombstonesByVersion.headMap(new Version(lamportTimestamp + 1, "")).values().iterator();
+        while (expired.hasNext()) {
+            StationRecord tombstone = expired.next();
+            prunedUpTo.accumulateAndGet(tombstone.getLamportTimestamp(), Math::max); // Before readers lose it
+            expired.remove();
+            tombstones.remove(tombstone.getId(), tombstone);
+            byVersion.remove(versionOf(tombstone));
+        }
+    }
+
+    // Treat every removal up to the given timestamp as pruned. Tombstones are not persisted, so after recovery a
+    // delta from before the recovered high-water mark could miss a removal.
+    public void forgetRemovalsUpTo(long lamportTimestamp) {
+        prunedUpTo.accumulateAndGet(lamportTimestamp, Math::max);
+    }
+
+    // Whether a delta after the given timestamp would still include every removal since
+    public boolean hasRemovalsSince(long lamportTimestamp) {
+        return lamportTimestamp >= prunedUpTo.get();
+    }
+
+    // Reassign the Lamport timestamps 1, 2, ... to the stations and tombstones in their current order, returning the
+    // last one. Only called during recovery, before any request has been stamped.
+    public long renumber() {
+        List<StationRecord> ordered = new ArrayList<>(byVersion.values());
+        byVersion.clear();
+        tombstonesByVersion.clear();
+        long next = 0;
+        for (StationRecord record : ordered) {
+            StationRecord renumbered = record.restamp(++next);
+            if (stations.get(record.getId()) == record) {
+                stations.put(record.getId(), renumbered);
+            } else {
+                tombstones.put(record.getId(), renumbered);
+                tombstonesByVersion.put(versionOf(renumbered), renumbered);
+            }
+            byVersion.put(versionOf(renumbered), renumbered);
+        }
+        version.set(next);
+        return next;
+    }
+
+    // Look up a single station, null if it is not in the feed
+    public StationRecord get(String id) {
+        return stations.get(id);
+    }
+
+    public Collection<StationRecord> records() {
+        return stations.values();
+    }
+
+    public boolean isEmpty() {
+        return stations.isEmpty();
+    }
+
+    public int size() {
+        return stations.size();
+    }
+
+    // Lamport timestamp of the most recent update to any station, used as the feed's ETag
+    public long getVersion() {
+        return version.get();
+    }
+
+    // UTF-8 JSON array of the stations updated after the given Lamport timestamp, streamed from the per-station bytes
+    public InputStream openJsonSince(long lamportTimestamp) {
+        return new JsonArrayStream(byVersion.tailMap(new Version(lamportTimestamp + 1, "")).values().iterator());
+    }
+
+    // UTF-8 JSON array of every station, streamed from the per-station bytes so a reader never holds a copy of the
+    // whole feed. Stations updated while it is read may appear in their old or new state.
+    public InputStream openFeedJson() {
+        return new JsonArrayStream(stations.values().iterator());
+    }
+
+    // Join the cached JSON of each record into a JSON array
+    public static byte[] joinJson(Collection<StationRecord> records) {
+        ByteArrayOutputStream feed = new ByteArrayOutputStream();
+        feed.write('[');
+        boolean first = true;
+        for (StationRecord record : records) {
+            if (!first) {
+                feed.write(',');
+            }
+            feed.writeBytes(record.getJson());
+            first = false;
+        }
+        feed.write(']');
+        return feed.toByteArray();
+    }
+
+    private static Version versionOf(StationRecord record) {
+        return new Version(record.getLamportTimestamp(), record.getId());
+    }
+
+    // Persist the full feed to the given file
+    public void writeSnapshot(Path path) throws IOException {
+        try (InputStream feed = openFeedJson(); OutputStream out = Files.newOutputStream(path)) {
+            feed.transferTo(out);
+        }
+    }
+
+    // Load a weather.json snapshot into the store, returning the highest Lamport timestamp it contains
+    public long loadSnapshot(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        long highWater = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            JsonElement element = JsonParser.parseReader(reader);
+            if (!element.isJsonArray()) {
+                return 0;
+            }
+            for (JsonElement station : element.getAsJsonArray()) {
+                StationRecord record = StationRecord.restore(station.getAsJsonObject());
+                StationRecord previous = stations.put(record.getId(), record);
+                if (previous != null) {
+                    byVersion.remove(versionOf(previous));
+                }
+                byVersion.put(versionOf(record), record);
+                version.accumulateAndGet(record.getLamportTimestamp(), Math::max);
+                highWater = Math.max(highWater, record.getLamportTimestamp());
+            }
+        }
+        return highWater;
+    }
+
+    // Reads the cached JSON of each record in turn as one JSON array, the records are never joined in memory
+    private static class JsonArrayStream extends InputStream {
+        private static final byte[] OPEN = { '[' };
+        private static final byte[] SEPARATOR = { ',' };
+        private static final byte[] CLOSE = { ']' };
+
+        private final Iterator<StationRecord> records;
+        private byte[] current = OPEN;
+        private int position;
+
+        JsonArrayStream(Iterator<StationRecord> records) {
+            this.records = records;
+        }
+
+        @Override
+        public int read() {
+            if (!advance()) {
+                return -1;
+            }
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int read = 0;
+            while (read < length && advance()) {
+                int count = Math.min(length - read, current.length - position);
+                System.arraycopy(current, position, buffer, offset + read, count);
+                position += count;
+                read += count;
+            }
+            return read == 0 ? -1 : read;
+        }
+
+        // Move on to the next piece of the array once the current one is used up, false at the end
+        private boolean advance() {
+            while (position == current.length) {
+                if (current == CLOSE) {
+                    return false;
+                }
+                boolean afterRecord = current != OPEN && current != SEPARATOR;
+                position = 0;
+                if (!records.hasNext()) {
+                    current = CLOSE;
+                } else {
+                    current = afterRecord ? SEPARATOR : records.next().getJson();
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+// Jetty thread pool that runs every request on its own virtual thread, so requests blocked on a commit or a
+// subscription only hold a carrier thread while they are running. Virtual threads need JDK 21 or later, the
+// executor is looked up reflectively so the server still compiles and runs on older JDKs in platform mode.
+// Jetty stops the pool with the server, which shuts the executor down and releases any thread in join().
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+    private final ExecutorService executor;
+    private final AtomicInteger active = new AtomicInteger();
+
+    private VirtualThreadPool(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    // Create the pool, or return null if this JDK has no virtual threads
+    public static VirtualThreadPool create() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new VirtualThreadPool(executor);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(() -> {
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    protected void doStop() {
+        executor.shutdown();
+    }
+
+    // Wait until the pool is stopped and every running request has finished
+    @Override
+    public void join() throws InterruptedException {
+        while (!executor.awaitTermination(1, TimeUnit.DAYS)) {
+            // Keep waiting until the last request finishes
+        }
+    }
+
+    @Override
+    public int getThreads() {
+        return active.get();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0; // Threads are created per task and never sit idle
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
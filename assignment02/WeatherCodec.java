@@ -0,0 +1,144 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+// Compact binary encoding of a weather observation, an alternative to JSON for PUT bodies.
+// Layout: [magic 'W'][version][numeric block, fixed size][presence bits for strings][strings as modified UTF-8]
+// The numeric block always holds every numeric field at a fixed offset, with NaN or Integer.MIN_VALUE marking
+// a missing value.
+public class WeatherCodec {
+    public static final String CONTENT_TYPE = "application/x-weather-binary";
+
+    private static final byte MAGIC = 'W';
+    private static final byte VERSION = 1;
+    private static final int MISSING_INT = Integer.MIN_VALUE;
+
+    private static final String[] DOUBLE_FIELDS = { "lat", "lon", "air_temp", "apparent_t", "dewpt", "press" };
+    private static final String[] INT_FIELDS = { "rel_hum", "wind_spd_kmh", "wind_spd_kt" };
+    private static final String[] STRING_FIELDS = { "id", "name", "state", "time_zone", "local_date_time",
+            "local_date_time_full", "cloud", "wind_dir" };
+
+    private WeatherCodec() {
+    }
+
+    // Encode an observation, throws IllegalArgumentException if it has fields or values the format cannot hold
+    public static byte[] encode(JsonObject entry) {
+        int known = 0;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+
+            for (String field : DOUBLE_FIELDS) {
+                JsonElement value = entry.get(field);
+                if (value == null || value.isJsonNull()) {
+                    out.writeDouble(Double.NaN);
+                } else {
+                    out.writeDouble(number(field, value).doubleValue());
+                    known++;
+                }
+            }
+
+            for (String field : INT_FIELDS) {
+                JsonElement value = entry.get(field);
+                if (value == null || value.isJsonNull()) {
+                    out.writeInt(MISSING_INT);
+                } else {
+                    double number = number(field, value).doubleValue();
+                    if (number != Math.rint(number) || number <= MISSING_INT || number > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Field '" + field + "' must be an integer.");
+                    }
+                    out.writeInt((int) number);
+                    known++;
+                }
+            }
+
+            int present = 0;
+            for (int i = 0; i < STRING_FIELDS.length; i++) {
+                JsonElement value = entry.get(STRING_FIELDS[i]);
+                if (value != null && !value.isJsonNull()) {
+                    present |= 1 << i;
+                }
+            }
+            out.writeByte(present);
+
+            for (int i = 0; i < STRING_FIELDS.length; i++) {
+                if ((present & (1 << i)) != 0) {
+                    JsonElement value = entry.get(STRING_FIELDS[i]);
+                    if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isString()) {
+                        throw new IllegalArgumentException("Field '" + STRING_FIELDS[i] + "' must be a string.");
+                    }
+                    out.writeUTF(value.getAsString());
+                    known++;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Writing to memory does not fail
+        }
+
+        // Fields the layout has no slot for would be silently dropped
+        int nonNull = 0;
+        for (String key : entry.keySet()) {
+            if (!entry.get(key).isJsonNull()) {
+                nonNull++;
+            }
+        }
+        if (nonNull != known) {
+            throw new IllegalArgumentException("Observation has fields the binary format cannot hold.");
+        }
+        return buffer.toByteArray();
+    }
+
+    // Decode an observation straight into a JsonObject, without parsing any JSON text
+    public static JsonObject decode(byte[] body) {
+        JsonObject entry = new JsonObject();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            if (in.readByte() != MAGIC || in.readByte() != VERSION) {
+                throw new IllegalArgumentException("Not a binary weather observation.");
+            }
+
+            double[] doubles = new double[DOUBLE_FIELDS.length];
+            for (int i = 0; i < doubles.length; i++) {
+                doubles[i] = in.readDouble();
+            }
+            int[] ints = new int[INT_FIELDS.length];
+            for (int i = 0; i < ints.length; i++) {
+                ints[i] = in.readInt();
+            }
+
+            // Strings first, so "id" leads the object as it does in JSON uploads
+            int present = in.readUnsignedByte();
+            for (int i = 0; i < STRING_FIELDS.length; i++) {
+                if ((present & (1 << i)) != 0) {
+                    entry.addProperty(STRING_FIELDS[i], in.readUTF());
+                }
+            }
+            for (int i = 0; i < doubles.length; i++) {
+                if (!Double.isNaN(doubles[i])) {
+                    entry.addProperty(DOUBLE_FIELDS[i], doubles[i]);
+                }
+            }
+            for (int i = 0; i < ints.length; i++) {
+                if (ints[i] != MISSING_INT) {
+                    entry.addProperty(INT_FIELDS[i], ints[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated binary weather observation.", e);
+        }
+        return entry;
+    }
+
+    private static Number number(String field, JsonElement value) {
+        if (!value.isJsonPrimitive() || !((JsonPrimitive) value).isNumber()) {
+            throw new IllegalArgumentException("Field '" + field + "' must be a number.");
+        }
+        return value.getAsNumber();
+    }
+}
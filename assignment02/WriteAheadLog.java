@@ -0,0 +1,233 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+// Append-only log of accepted PUT requests, compacted periodically into a weather.json snapshot.
+// Each record is framed as [payload length][CRC32 of payload][payload], where the payload is the
+// Lamport timestamp followed by the station JSON in UTF-8. Compaction starts the new log with a checkpoint
+// record carrying the Lamport clock, so the clock resumes past every stamp ever given out even when none of the
+// records that carried them survive in the snapshot.
+// Appends from several committer threads are safe, and concurrent appenders share a single fsync.
+public class WriteAheadLog implements Closeable {
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+    // JSON of a checkpoint record, whose timestamp is the Lamport clock at compaction
+    private static final String CHECKPOINT = "{\"checkpoint\":true}";
+
+    private final Path path;
+    private final FileChannel channel;
+
+    // Guards writes, compaction and the counters below
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private int recordsSinceSnapshot;
+    private long bytesWritten;
+
+    // Held by the thread currently calling force(), others wait and reuse its result
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private volatile long bytesSynced;
+
+    public WriteAheadLog(Path path) throws IOException {
+        this.path = path;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    // Append a batch of requests with a single write, returning once it has been fsynced (group commit)
+    public void append(List<LamportRequest> batch) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(batch.size());
+        for (LamportRequest request : batch) {
+            payloads.add(encode(request.getLamportTimestamp(), request.getContent().toString()));
+        }
+        ByteBuffer buffer = frame(payloads);
+        int total = buffer.remaining();
+
+        long end;
+        writeLock.lock();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            bytesWritten += total;
+            recordsSinceSnapshot += batch.size();
+            end = bytesWritten;
+        } finally {
+            writeLock.unlock();
+        }
+        sync(end);
+    }
+
+    // Fsync everything written up to the given position, sharing one force() between concurrent callers
+    private void sync(long position) throws IOException {
+        if (bytesSynced >= position) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (bytesSynced >= position) {
+                return; // Another appender's force() covered this write
+            }
+            long target;
+            writeLock.lock();
+            try {
+                target = bytesWritten;
+            } finally {
+                writeLock.unlock();
+            }
+            channel.force(false);
+            bytesSynced = target;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // Replay every record in the log into the store, returning the highest Lamport timestamp seen.
+    // A torn or corrupt tail left by a crash is truncated so new records follow the last good one.
+    public long replay(StationStore store) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 crc = new CRC32();
+        long highWater = 0;
+        int replayed = 0;
+        int validEnd = 0;
+
+        while (buffer.remaining() >= HEADER_BYTES) {
+            int length = buffer.getInt();
+            long checksum = buffer.getLong();
+            if (length < Long.BYTES || length > buffer.remaining()) {
+                break; // Torn write
+            }
+
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if (crc.getValue() != checksum) {
+                break; // Corrupt record
+            }
+
+            long lamportTimestamp = ByteBuffer.wrap(payload).getLong();
+            String json = new String(payload, Long.BYTES, length - Long.BYTES, StandardCharsets.UTF_8);
+            highWater = Math.max(highWater, lamportTimestamp);
+            validEnd = buffer.position();
+            if (json.equals(CHECKPOINT)) {
+                continue;
+            }
+            JsonObject entry = JsonParser.parseString(json).getAsJsonObject();
+            store.apply(lamportTimestamp, entry);
+            replayed++;
+        }
+
+        if (validEnd < buffer.limit()) {
+            System.err.println("Discarding " + (buffer.limit() - validEnd) + " bytes of incomplete records from "
+                    + path.getFileName());
+            channel.truncate(validEnd);
+            channel.force(true);
+        }
+
+        recordsSinceSnapshot = replayed;
+        return highWater;
+    }
+
+    // Number of records appended since the last compaction
+    public int getRecordsSinceSnapshot() {
+        writeLock.lock();
+        try {
+            return recordsSinceSnapshot;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Compact the log once at least threshold records have been appended since the last snapshot
+    public boolean compactIfNeeded(StationStore store, Path snapshot, Path temp, int threshold, long clock)
+            throws IOException {
+        writeLock.lock();
+        try {
+            if (recordsSinceSnapshot < threshold) {
+                return false;
+            }
+            compact(store, snapshot, temp, clock);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Write the full feed to a snapshot via a temporary file, then replace the log records it covers with a
+    // checkpoint of the Lamport clock. Callers must not compact while a record is in the log but not yet applied to
+    // the store, so every record in the log is in the snapshot.
+    public void compact(StationStore store, Path snapshot, Path temp, long clock) throws IOException {
+        writeLock.lock();
+        try {
+            store.writeSnapshot(temp);
+            try (FileChannel snapshotChannel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                snapshotChannel.force(true);
+            }
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            channel.truncate(0);
+            ByteBuffer checkpoint = frame(List.of(encode(Math.max(clock, store.getVersion()), CHECKPOINT)));
+            bytesWritten += checkpoint.remaining();
+            while (checkpoint.hasRemaining()) {
+                channel.write(checkpoint);
+            }
+            channel.force(true);
+            recordsSinceSnapshot = 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Payload layout: [Lamport timestamp][station JSON]
+    private static byte[] encode(long lamportTimestamp, String content) {
+        byte[] json = content.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Long.BYTES + json.length)
+                .putLong(lamportTimestamp)
+                .put(json)
+                .array();
+    }
+
+    // Frame each payload as [payload length][CRC32 of payload][payload]
+    private static ByteBuffer frame(List<byte[]> payloads) {
+        int total = 0;
+        for (byte[] payload : payloads) {
+            total += HEADER_BYTES + payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        CRC32 crc = new CRC32();
+        for (byte[] payload : payloads) {
+            crc.reset();
+            crc.update(payload);
+            buffer.putInt(payload.length);
+            buffer.putLong(crc.getValue());
+            buffer.put(payload);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}